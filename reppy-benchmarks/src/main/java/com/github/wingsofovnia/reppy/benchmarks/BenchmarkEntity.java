@@ -0,0 +1,59 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.benchmarks;
+
+import javax.persistence.Id;
+
+@javax.persistence.Entity
+public class BenchmarkEntity {
+    @Id
+    private Integer id;
+    private String name;
+    private int value;
+
+    public BenchmarkEntity() {}
+
+    public BenchmarkEntity(int id) {
+        this.id = id;
+        this.name = "entity-" + id;
+        this.value = id;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BenchmarkEntity)) return false;
+        return id != null && id.equals(((BenchmarkEntity) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : 0;
+    }
+}
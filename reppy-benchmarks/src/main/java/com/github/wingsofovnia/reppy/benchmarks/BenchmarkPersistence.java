@@ -0,0 +1,55 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.benchmarks;
+
+import com.github.wingsofovnia.reppy.jpa.JpaRepository;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.jpa.internal.EntityManagerFactoryImpl;
+import org.hibernate.service.ServiceRegistry;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.spi.PersistenceUnitTransactionType;
+import java.util.logging.Level;
+
+final class BenchmarkPersistence {
+    private BenchmarkPersistence() {
+        throw new AssertionError("No instance for you");
+    }
+
+    /**
+     * Builds factory over a fresh in-memory H2 database with JDBC batching of the given size.
+     */
+    static EntityManagerFactory buildEntityManagerFactory(String database, int batchSize) {
+        final Configuration configuration = new Configuration();
+        configuration.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        configuration.setProperty("hibernate.connection.url", "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1");
+        configuration.setProperty("hibernate.connection.pool_size", "1");
+        configuration.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        configuration.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        configuration.setProperty("hibernate.connection.autocommit", "false");
+        JpaRepository.jdbcBatchingProperties(batchSize).forEach(configuration::setProperty);
+        configuration.addAnnotatedClass(BenchmarkEntity.class);
+
+        java.util.logging.Logger.getLogger("org.hibernate").setLevel(Level.OFF);
+
+        final ServiceRegistry serviceRegistry = new StandardServiceRegistryBuilder()
+                .applySettings(configuration.getProperties()).build();
+        return new EntityManagerFactoryImpl(PersistenceUnitTransactionType.RESOURCE_LOCAL, true, null,
+                configuration, serviceRegistry, null);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.benchmarks;
+
+import com.github.wingsofovnia.reppy.JCFRepositories;
+import com.github.wingsofovnia.reppy.api.Repository;
+import com.github.wingsofovnia.reppy.api.SequenceRepository;
+import com.github.wingsofovnia.reppy.api.Specification;
+import com.github.wingsofovnia.reppy.api.Specifications;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JCFRepositoryBenchmark {
+
+    @Param({"list", "set", "concurrent"})
+    public String kind;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    private Repository<BenchmarkEntity> repository;
+    private SequenceRepository<BenchmarkEntity, Integer> sequence;
+    private List<BenchmarkEntity> batch;
+    private List<BenchmarkEntity> existing;
+    private Specification<BenchmarkEntity> specification;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final List<BenchmarkEntity> entities = IntStream.range(0, size).mapToObj(BenchmarkEntity::new)
+                .collect(Collectors.toList());
+
+        switch (kind) {
+            case "list":
+                repository = JCFRepositories.from(new ArrayList<>(entities));
+                break;
+            case "set":
+                repository = JCFRepositories.from(new HashSet<>(entities));
+                break;
+            default:
+                repository = JCFRepositories.concurrent();
+                repository.addAll(entities);
+        }
+        sequence = JCFRepositories.from(new ArrayList<>(entities));
+
+        batch = IntStream.range(size, size + batchSize).mapToObj(BenchmarkEntity::new).collect(Collectors.toList());
+        existing = IntStream.range(0, batchSize).map(i -> i * (size / batchSize)).mapToObj(BenchmarkEntity::new)
+                .collect(Collectors.toList());
+
+        final int from = size / 2;
+        specification = Specifications.of(BenchmarkEntity.class).between("value", from, from + batchSize - 1);
+    }
+
+    @Benchmark
+    public void addRemove() {
+        final BenchmarkEntity entity = batch.get(0);
+        repository.add(entity);
+        repository.remove(entity);
+    }
+
+    @Benchmark
+    public int addAllRemoveAll() {
+        repository.addAll(batch);
+        return repository.removeAll(batch);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return repository.contains(new BenchmarkEntity(ThreadLocalRandom.current().nextInt(size)));
+    }
+
+    @Benchmark
+    public boolean containsAll() {
+        return repository.containsAll(existing);
+    }
+
+    @Benchmark
+    public long size() {
+        return repository.size();
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (BenchmarkEntity entity : repository)
+            blackhole.consume(entity);
+    }
+
+    @Benchmark
+    public Object getById() {
+        return sequence.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public long getBySpecification() {
+        return repository.find(specification).count();
+    }
+}
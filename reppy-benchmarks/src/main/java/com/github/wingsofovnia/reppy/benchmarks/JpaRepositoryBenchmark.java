@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.benchmarks;
+
+import com.github.wingsofovnia.reppy.api.Specification;
+import com.github.wingsofovnia.reppy.api.Specifications;
+import com.github.wingsofovnia.reppy.jpa.JpaSequenceRepository;
+import com.github.wingsofovnia.reppy.jpa.JpaSpecification;
+import com.github.wingsofovnia.reppy.jpa.JpaSpecifications;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JpaRepositoryBenchmark {
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    @Param({"1", "50"})
+    public int batchSize;
+
+    private EntityManagerFactory entityManagerFactory;
+    private JpaSequenceRepository<BenchmarkEntity, Integer> repository;
+    private List<BenchmarkEntity> existing;
+    private JpaSpecification<BenchmarkEntity> jpaSpecification;
+    private Specification<BenchmarkEntity> specification;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = BenchmarkPersistence.buildEntityManagerFactory("reppy-" + size + "-" + batchSize,
+                batchSize);
+        repository = new JpaSequenceRepository<>(entityManagerFactory, BenchmarkEntity.class);
+        repository.setBatchSize(batchSize);
+        repository.addAll(IntStream.range(0, size).mapToObj(BenchmarkEntity::new).collect(Collectors.toList()));
+        nextId = size;
+
+        existing = IntStream.range(0, batchSize).map(i -> i * (size / batchSize)).mapToObj(BenchmarkEntity::new)
+                .collect(Collectors.toList());
+
+        final int from = size / 2;
+        jpaSpecification = JpaSpecifications.of(BenchmarkEntity.class).between("value", from, from + batchSize - 1);
+        specification = Specifications.of(BenchmarkEntity.class).between("value", from, from + batchSize - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public void addRemove() {
+        final BenchmarkEntity entity = new BenchmarkEntity(nextId++);
+        repository.add(entity);
+        repository.remove(entity);
+    }
+
+    @Benchmark
+    public int addAllRemoveAll() {
+        final List<BenchmarkEntity> batch = IntStream.range(nextId, nextId + batchSize)
+                .mapToObj(BenchmarkEntity::new).collect(Collectors.toList());
+        nextId += batchSize;
+
+        repository.addAll(batch);
+        return repository.removeAll(batch);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return repository.contains(new BenchmarkEntity(ThreadLocalRandom.current().nextInt(size)));
+    }
+
+    @Benchmark
+    public boolean containsAll() {
+        return repository.containsAll(existing);
+    }
+
+    @Benchmark
+    public long size() {
+        return repository.size();
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (BenchmarkEntity entity : repository)
+            blackhole.consume(entity);
+    }
+
+    @Benchmark
+    public Object getById() {
+        return repository.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public long getByJpaSpecification() {
+        try (Stream<BenchmarkEntity> found = repository.get(jpaSpecification)) {
+            return found.count();
+        }
+    }
+
+    @Benchmark
+    public long getBySpecification() {
+        try (Stream<BenchmarkEntity> found = repository.find(specification)) {
+            return found.count();
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.Repository;
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.api.Specification;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Maintains named secondary indexes over the subjects of the underlying {@link Repository}.
+ * <p>
+ * Hash indexes answer equality lookups in O(1), sorted indexes answer range lookups in O(log n + k).
+ * Subjects are indexed by equality, so the underlying repository is expected to have set semantics, and
+ * indexed keys must not change while a subject is stored. Subjects with a {@code null} key are left out of
+ * that index. All mutations must go through this repository for the indexes to stay consistent.
+ */
+public class IndexedRepository<T> implements Repository<T> {
+    private final Repository<T> repository;
+    private final Map<String, Index<T>> indexes = new LinkedHashMap<>();
+
+    public IndexedRepository(Repository<T> repository) {
+        this.repository = Objects.requireNonNull(repository);
+    }
+
+    public IndexedRepository<T> addHashIndex(String name, Function<? super T, ?> key) {
+        return addIndex(name, new HashIndex<>(name, key));
+    }
+
+    public IndexedRepository<T> addUniqueIndex(String name, Function<? super T, ?> key) {
+        return addIndex(name, new UniqueIndex<>(name, key));
+    }
+
+    public <K extends Comparable<? super K>> IndexedRepository<T> addSortedIndex(String name,
+                                                                                 Function<? super T, K> key) {
+        return addIndex(name, new SortedIndex<>(name, key));
+    }
+
+    public boolean hasIndex(String name) {
+        return indexes.containsKey(name);
+    }
+
+    public boolean isSortedIndex(String name) {
+        return indexes.get(name) instanceof SortedIndex;
+    }
+
+    public void dropIndex(String name) {
+        indexes.remove(name);
+    }
+
+    /**
+     * @return subjects whose key in the given index equals {@code key}
+     * @throws IllegalArgumentException if the index is sorted and the key is not comparable with its keys
+     */
+    public Stream<T> find(String index, Object key) {
+        return key == null ? Stream.empty() : index(index).find(key);
+    }
+
+    public Optional<T> findUnique(String index, Object key) {
+        final Index<T> idx = index(index);
+        if (!(idx instanceof UniqueIndex))
+            throw new IllegalArgumentException("Index '" + index + "' is not unique");
+        return key == null ? Optional.empty() : Optional.ofNullable(((UniqueIndex<T>) idx).entries.get(key));
+    }
+
+    /**
+     * @return subjects whose key in the given sorted index lies in the range, {@code null} bounds are open
+     * @throws IllegalArgumentException if a bound is not comparable with keys of the index
+     */
+    public Stream<T> findRange(String index, Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        final Index<T> idx = index(index);
+        if (!(idx instanceof SortedIndex))
+            throw new IllegalArgumentException("Index '" + index + "' is not sorted");
+        return ((SortedIndex<T, ?>) idx).range(from, fromInclusive, to, toInclusive);
+    }
+
+    public Stream<T> findBetween(String index, Object from, Object to) {
+        return findRange(index, from, true, to, true);
+    }
+
+    /**
+     * Narrows the scan with indexes named after compared attributes when possible: equality and in-list
+     * comparisons use any index, range comparisons use sorted ones. Candidates are then filtered with the
+     * compiled specification, so the result is the same as of a full scan.
+     */
+    @Override
+    public Stream<T> find(Specification<T> specification) {
+        final Stream<T> candidates = candidates(specification);
+        return (candidates != null ? candidates : stream()).filter(specification.toPredicate());
+    }
+
+    private Stream<T> candidates(Specification<T> specification) {
+        final List<Specification<T>> operands = specification.getOperands();
+        switch (specification.getOperator()) {
+            case AND:
+                final Stream<T> left = candidates(operands.get(0));
+                return left != null ? left : candidates(operands.get(1));
+            case OR:
+                final Stream<T> first = candidates(operands.get(0));
+                final Stream<T> second = first == null ? null : candidates(operands.get(1));
+                return second == null ? null : Stream.concat(first, second).distinct();
+            case NOT:
+                return null;
+            default:
+                break;
+        }
+
+        final Index<T> index = indexes.get(specification.getAttribute());
+        final List<Object> values = specification.getValues();
+        if (index == null || !values.stream().allMatch(index::accepts))
+            return null;
+
+        final Object value = values.isEmpty() ? null : values.get(0);
+        switch (specification.getOperator()) {
+            case EQ:
+                return index.find(value);
+            case IN:
+                return values.stream().distinct().flatMap(index::find);
+            default:
+                break;
+        }
+
+        if (!(index instanceof SortedIndex))
+            return null;
+
+        final SortedIndex<T, ?> sorted = (SortedIndex<T, ?>) index;
+        switch (specification.getOperator()) {
+            case LT:
+                return sorted.range(null, false, value, false);
+            case LE:
+                return sorted.range(null, false, value, true);
+            case GT:
+                return sorted.range(value, false, null, false);
+            case GE:
+                return sorted.range(value, true, null, false);
+            case BETWEEN:
+                return sorted.range(value, true, values.get(1), true);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void add(T subject) {
+        Objects.requireNonNull(subject);
+        for (Index<T> index : indexes.values())
+            index.check(subject);
+
+        repository.add(subject);
+        for (Index<T> index : indexes.values())
+            index.add(subject);
+    }
+
+    /**
+     * Checks all subjects against the indexes, adds them with one {@code addAll} of the underlying repository and
+     * indexes them afterwards. If {@code addAll} fails, subjects it has managed to add are indexed anyway.
+     */
+    @Override
+    public void addAll(Stream<T> subjects) {
+        final List<T> added = new ArrayList<>();
+        subjects.forEachOrdered(subject -> added.add(Objects.requireNonNull(subject)));
+        for (Index<T> index : indexes.values())
+            index.check(added);
+
+        try {
+            repository.addAll(added.stream());
+        } catch (RuntimeException e) {
+            added.removeIf(subject -> !repository.contains(subject));
+            throw e;
+        } finally {
+            for (Index<T> index : indexes.values())
+                added.forEach(index::add);
+        }
+    }
+
+    @Override
+    public void remove(T subject) {
+        unindexIfRemoved(subject);
+    }
+
+    @Override
+    public int removeAll(Stream<T> subjects) {
+        return (int) subjects.filter(this::unindexIfRemoved).count();
+    }
+
+    @Override
+    public boolean contains(T subject) {
+        return repository.contains(subject);
+    }
+
+    @Override
+    public boolean containsAll(Stream<T> subjects) {
+        return repository.containsAll(subjects);
+    }
+
+    @Override
+    public long size() {
+        return repository.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return repository.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        repository.clear();
+        for (Index<T> index : indexes.values())
+            index.clear();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        final Iterator<T> iterator = repository.iterator();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    public Repository<T> getRepository() {
+        return repository;
+    }
+
+    private IndexedRepository<T> addIndex(String name, Index<T> index) {
+        Objects.requireNonNull(name);
+        if (indexes.containsKey(name))
+            throw new IllegalArgumentException("Index '" + name + "' already exists");
+
+        for (T subject : repository) {
+            index.check(subject);
+            index.add(subject);
+        }
+        indexes.put(name, index);
+        return this;
+    }
+
+    private Index<T> index(String name) {
+        final Index<T> index = indexes.get(name);
+        if (index == null)
+            throw new IllegalArgumentException("No index named '" + name + "'");
+        return index;
+    }
+
+    private boolean unindexIfRemoved(T subject) {
+        if (subject == null || !repository.contains(subject))
+            return false;
+
+        repository.remove(subject);
+        for (Index<T> index : indexes.values())
+            index.remove(subject);
+        return true;
+    }
+
+    private static abstract class Index<T> {
+        final String name;
+        final Function<? super T, ?> key;
+        Class<?> keyType;
+
+        Index(String name, Function<? super T, ?> key) {
+            this.name = name;
+            this.key = Objects.requireNonNull(key);
+        }
+
+        Object keyOf(T subject) {
+            final Object k = key.apply(subject);
+            if (k != null && keyType == null)
+                keyType = k.getClass();
+            return k;
+        }
+
+        /**
+         * @return whether lookups by the key are equivalent to in-memory comparison with it
+         */
+        boolean accepts(Object k) {
+            return k != null && (keyType == null || keyType == k.getClass());
+        }
+
+        void check(T subject) {
+        }
+
+        void check(List<T> subjects) {
+            subjects.forEach(this::check);
+        }
+
+        abstract void add(T subject);
+
+        abstract void remove(T subject);
+
+        abstract Stream<T> find(Object key);
+
+        abstract void clear();
+    }
+
+    private static class HashIndex<T> extends Index<T> {
+        private final Map<Object, Set<T>> entries = new HashMap<>();
+
+        HashIndex(String name, Function<? super T, ?> key) {
+            super(name, key);
+        }
+
+        @Override
+        void add(T subject) {
+            final Object k = keyOf(subject);
+            if (k != null)
+                entries.computeIfAbsent(k, x -> new LinkedHashSet<>()).add(subject);
+        }
+
+        @Override
+        void remove(T subject) {
+            final Object k = key.apply(subject);
+            final Set<T> bucket = k == null ? null : entries.get(k);
+            if (bucket != null && bucket.remove(subject) && bucket.isEmpty())
+                entries.remove(k);
+        }
+
+        @Override
+        Stream<T> find(Object key) {
+            return entries.getOrDefault(key, Collections.emptySet()).stream();
+        }
+
+        @Override
+        void clear() {
+            entries.clear();
+        }
+    }
+
+    private static class UniqueIndex<T> extends Index<T> {
+        private final Map<Object, T> entries = new HashMap<>();
+
+        UniqueIndex(String name, Function<? super T, ?> key) {
+            super(name, key);
+        }
+
+        @Override
+        void check(T subject) {
+            final Object k = key.apply(subject);
+            final T existing = k == null ? null : entries.get(k);
+            if (existing != null && !existing.equals(subject))
+                throw new RepositoryException("Unique index '" + name + "' already contains key " + k);
+        }
+
+        @Override
+        void check(List<T> subjects) {
+            final Map<Object, T> batch = new HashMap<>();
+            for (T subject : subjects) {
+                check(subject);
+                final Object k = key.apply(subject);
+                final T existing = k == null ? null : batch.putIfAbsent(k, subject);
+                if (existing != null && !existing.equals(subject))
+                    throw new RepositoryException("Unique index '" + name + "' is given key " + k + " twice");
+            }
+        }
+
+        @Override
+        void add(T subject) {
+            final Object k = keyOf(subject);
+            if (k != null)
+                entries.put(k, subject);
+        }
+
+        @Override
+        void remove(T subject) {
+            final Object k = key.apply(subject);
+            if (k != null)
+                entries.remove(k, subject);
+        }
+
+        @Override
+        Stream<T> find(Object key) {
+            final T subject = entries.get(key);
+            return subject == null ? Stream.empty() : Stream.of(subject);
+        }
+
+        @Override
+        void clear() {
+            entries.clear();
+        }
+    }
+
+    private static class SortedIndex<T, K extends Comparable<? super K>> extends Index<T> {
+        private final NavigableMap<K, Set<T>> entries = new TreeMap<>();
+
+        SortedIndex(String name, Function<? super T, K> key) {
+            super(name, key);
+        }
+
+        @SuppressWarnings("unchecked")
+        private K sortedKeyOf(T subject) {
+            return (K) keyOf(subject);
+        }
+
+        @Override
+        void add(T subject) {
+            final K k = sortedKeyOf(subject);
+            if (k != null)
+                entries.computeIfAbsent(k, x -> new LinkedHashSet<>()).add(subject);
+        }
+
+        @Override
+        void remove(T subject) {
+            final K k = sortedKeyOf(subject);
+            final Set<T> bucket = k == null ? null : entries.get(k);
+            if (bucket != null && bucket.remove(subject) && bucket.isEmpty())
+                entries.remove(k);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Stream<T> find(Object key) {
+            try {
+                return entries.getOrDefault((K) key, Collections.emptySet()).stream();
+            } catch (ClassCastException e) {
+                throw incomparable(key, e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Stream<T> range(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+            final NavigableMap<K, Set<T>> range;
+            try {
+                if (from != null && to != null) {
+                    if (((K) from).compareTo((K) to) > 0)
+                        return Stream.empty();
+                    range = entries.subMap((K) from, fromInclusive, (K) to, toInclusive);
+                } else if (from != null) {
+                    range = entries.tailMap((K) from, fromInclusive);
+                } else if (to != null) {
+                    range = entries.headMap((K) to, toInclusive);
+                } else {
+                    range = entries;
+                }
+            } catch (ClassCastException e) {
+                throw incomparable(from != null ? from : to, e);
+            }
+            return range.values().stream().flatMap(Set::stream);
+        }
+
+        private IllegalArgumentException incomparable(Object key, ClassCastException cause) {
+            return new IllegalArgumentException("Key " + key + " of " + key.getClass().getName()
+                    + " is not comparable with keys of index '" + name + "'", cause);
+        }
+
+        @Override
+        void clear() {
+            entries.clear();
+        }
+    }
+}
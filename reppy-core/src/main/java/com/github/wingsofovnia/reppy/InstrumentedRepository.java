@@ -0,0 +1,184 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.Repository;
+import com.github.wingsofovnia.reppy.api.Specification;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Records latency, call, error and row counts of every operation of the underlying {@link Repository}.
+ * <p>
+ * Bulk operations count processed subjects as rows, iterations and streams are recorded once exhausted or
+ * closed respectively. Call {@link RepositoryMetrics#register()} on {@link #getMetrics()} to expose them via JMX.
+ */
+public class InstrumentedRepository<T> implements Repository<T> {
+    private final Repository<T> repository;
+    protected final RepositoryMetrics metrics;
+
+    public InstrumentedRepository(Repository<T> repository, Class<?> entityClass) {
+        this(repository, new RepositoryMetrics(entityClass));
+    }
+
+    public InstrumentedRepository(Repository<T> repository, RepositoryMetrics metrics) {
+        this.repository = Objects.requireNonNull(repository);
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    @Override
+    public void add(T subject) {
+        final long started = System.nanoTime();
+        try {
+            repository.add(subject);
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.ADD, started);
+            throw e;
+        }
+        metrics.record(Operation.ADD, started, 1);
+    }
+
+    @Override
+    public void addAll(Stream<T> subjects) {
+        final long started = System.nanoTime();
+        try {
+            repository.addAll(metrics.counted(Operation.ADD_ALL, subjects));
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.ADD_ALL, started);
+            throw e;
+        }
+        metrics.record(Operation.ADD_ALL, started, 0);
+    }
+
+    @Override
+    public void remove(T subject) {
+        final long started = System.nanoTime();
+        try {
+            repository.remove(subject);
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.REMOVE, started);
+            throw e;
+        }
+        metrics.record(Operation.REMOVE, started, 1);
+    }
+
+    @Override
+    public int removeAll(Stream<T> subjects) {
+        final long started = System.nanoTime();
+        final int removed;
+        try {
+            removed = repository.removeAll(subjects);
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.REMOVE_ALL, started);
+            throw e;
+        }
+        metrics.record(Operation.REMOVE_ALL, started, removed);
+        return removed;
+    }
+
+    @Override
+    public boolean contains(T subject) {
+        final long started = System.nanoTime();
+        final boolean contains;
+        try {
+            contains = repository.contains(subject);
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.CONTAINS, started);
+            throw e;
+        }
+        metrics.record(Operation.CONTAINS, started, contains ? 1 : 0);
+        return contains;
+    }
+
+    @Override
+    public boolean containsAll(Stream<T> subjects) {
+        final long started = System.nanoTime();
+        final boolean contains;
+        try {
+            contains = repository.containsAll(subjects);
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.CONTAINS_ALL, started);
+            throw e;
+        }
+        metrics.record(Operation.CONTAINS_ALL, started, 0);
+        return contains;
+    }
+
+    @Override
+    public long size() {
+        final long started = System.nanoTime();
+        final long size;
+        try {
+            size = repository.size();
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.SIZE, started);
+            throw e;
+        }
+        metrics.record(Operation.SIZE, started, 0);
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        final long started = System.nanoTime();
+        final boolean empty;
+        try {
+            empty = repository.isEmpty();
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.IS_EMPTY, started);
+            throw e;
+        }
+        metrics.record(Operation.IS_EMPTY, started, 0);
+        return empty;
+    }
+
+    @Override
+    public void clear() {
+        final long started = System.nanoTime();
+        try {
+            repository.clear();
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.CLEAR, started);
+            throw e;
+        }
+        metrics.record(Operation.CLEAR, started, 0);
+    }
+
+    @Override
+    public Stream<T> find(Specification<T> specification) {
+        return stream(Operation.FIND, () -> repository.find(specification));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        final long started = System.nanoTime();
+        try {
+            return metrics.iterator(Operation.ITERATE, started, repository.iterator());
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.ITERATE, started);
+            throw e;
+        }
+    }
+
+    @Override
+    public Stream<T> stream() {
+        return stream(Operation.ITERATE, repository::stream);
+    }
+
+    protected Stream<T> stream(Operation operation, Supplier<Stream<T>> stream) {
+        final long started = System.nanoTime();
+        try {
+            return metrics.stream(operation, started, stream.get());
+        } catch (RuntimeException e) {
+            metrics.failed(operation, started);
+            throw e;
+        }
+    }
+
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.SequenceRepository;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
+
+import java.io.Serializable;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * {@link InstrumentedRepository} of a {@link SequenceRepository}, additionally recording index based access.
+ */
+public class InstrumentedSequenceRepository<T, ID extends Serializable> extends InstrumentedRepository<T>
+        implements SequenceRepository<T, ID> {
+    private final SequenceRepository<T, ID> repository;
+
+    public InstrumentedSequenceRepository(SequenceRepository<T, ID> repository, Class<?> entityClass) {
+        this(repository, new RepositoryMetrics(entityClass, "SequenceRepository"));
+    }
+
+    public InstrumentedSequenceRepository(SequenceRepository<T, ID> repository, RepositoryMetrics metrics) {
+        super(repository, metrics);
+        this.repository = repository;
+    }
+
+    @Override
+    public Optional<T> get(ID index) {
+        final long started = System.nanoTime();
+        final Optional<T> subject;
+        try {
+            subject = repository.get(index);
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.GET, started);
+            throw e;
+        }
+        metrics.record(Operation.GET, started, subject.isPresent() ? 1 : 0);
+        return subject;
+    }
+
+    @Override
+    public Stream<T> getAll() {
+        return stream(Operation.GET_ALL, repository::getAll);
+    }
+
+    @Override
+    public void remove(ID index) {
+        final long started = System.nanoTime();
+        try {
+            repository.remove(index);
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.REMOVE, started);
+            throw e;
+        }
+        metrics.record(Operation.REMOVE, started, 1);
+    }
+}
@@ -1,10 +1,19 @@
 package com.github.wingsofovnia.reppy;
 
+import com.github.wingsofovnia.reppy.api.IntSequenceRepository;
+import com.github.wingsofovnia.reppy.api.LongSequenceRepository;
 import com.github.wingsofovnia.reppy.api.Repository;
+import com.github.wingsofovnia.reppy.api.RepositoryException;
 import com.github.wingsofovnia.reppy.api.SequenceRepository;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 public class JCFRepositories {
@@ -24,6 +33,43 @@ public class JCFRepositories {
         return new CollectionRepository<>(set);
     }
 
+    /**
+     * Creates a thread-safe repository backed by a concurrent hash set. Bulk operations run in parallel.
+     */
+    public static <T> Repository<T> concurrent() {
+        return new ConcurrentCollectionRepository<>(ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * Creates a thread-safe sequence repository backed by a concurrent skip list. Indexes are assigned on
+     * add and stay stable after removals, {@link SequenceRepository#get(java.io.Serializable)} returns empty for
+     * freed ones. Indexes are never reused, so adding fails once {@link Integer#MAX_VALUE} has been assigned.
+     */
+    public static <T> SequenceRepository<T, Integer> concurrentSequence() {
+        return concurrentSequence(0);
+    }
+
+    static <T> SequenceRepository<T, Integer> concurrentSequence(int firstIndex) {
+        return new ConcurrentSequenceRepository<>(firstIndex);
+    }
+
+    /**
+     * Creates a sequence repository backed by a slot array with a free list. Lookups and removals by index
+     * are O(1) and allocation free, indexes of removed subjects are reused by later inserts.
+     */
+    public static <T> IntSequenceRepository<T> intSequence() {
+        return new IntSlotSequenceRepository<>();
+    }
+
+    /**
+     * Creates a sequence repository backed by a slot array with a free list. Lookups and removals by index
+     * are O(1) and allocation free, indexes carry a slot generation so stale ones never resolve to a subject
+     * inserted later into the same slot.
+     */
+    public static <T> LongSequenceRepository<T> longSequence() {
+        return new LongSlotSequenceRepository<>();
+    }
+
     private static class CollectionRepository<T> implements Repository<T> {
         final Collection<T> collection;
 
@@ -49,7 +95,7 @@ public class JCFRepositories {
         @Override
         public int removeAll(Stream<T> subjects) {
             final AtomicInteger counter = new AtomicInteger(0);
-            subjects.parallel().forEach(s -> {
+            subjects.forEach(s -> {
                 if (collection.remove(s)) counter.incrementAndGet();
             });
 
@@ -63,7 +109,7 @@ public class JCFRepositories {
 
         @Override
         public boolean containsAll(Stream<T> subjects) {
-            return subjects.anyMatch(s -> !collection.contains(s));
+            return subjects.allMatch(collection::contains);
         }
 
         @Override
@@ -109,4 +155,329 @@ public class JCFRepositories {
             ((List<T>) collection).remove((int) index);
         }
     }
+
+    private static class ConcurrentCollectionRepository<T> extends CollectionRepository<T> {
+
+        ConcurrentCollectionRepository(Collection<T> collection) {
+            super(collection);
+        }
+
+        @Override
+        public void addAll(Stream<T> subjects) {
+            subjects.parallel().forEach(collection::add);
+        }
+
+        @Override
+        public int removeAll(Stream<T> subjects) {
+            return (int) subjects.parallel().filter(collection::remove).count();
+        }
+
+        @Override
+        public boolean containsAll(Stream<T> subjects) {
+            return subjects.parallel().allMatch(collection::contains);
+        }
+    }
+
+    /**
+     * Every subject maps to the set of indexes it occupies, and both maps are changed together within
+     * {@link ConcurrentMap#compute} of the subject, so removal of a subject is O(log n) and never sees it half
+     * added. {@link #clear()} swaps both maps for empty ones at once, so mutations take no lock; a mutation racing
+     * with it lands in the discarded maps, as if it had happened before.
+     */
+    private static class ConcurrentSequenceRepository<T> implements SequenceRepository<T, Integer> {
+        private final AtomicReference<Maps<T>> maps = new AtomicReference<>(new Maps<>());
+        private final AtomicLong nextIndex;
+
+        ConcurrentSequenceRepository(int firstIndex) {
+            this.nextIndex = new AtomicLong(firstIndex);
+        }
+
+        @Override
+        public void add(T subject) {
+            Objects.requireNonNull(subject);
+            final Maps<T> current = maps.get();
+            current.indexes.compute(subject, (s, occupied) -> {
+                final long index = nextIndex.getAndIncrement();
+                if (index > Integer.MAX_VALUE)
+                    throw new RepositoryException("Sequence repository has run out of indexes");
+
+                final NavigableSet<Integer> updated = occupied != null ? occupied : new TreeSet<>();
+                updated.add((int) index);
+                current.entries.put((int) index, s);
+                return updated;
+            });
+        }
+
+        @Override
+        public void addAll(Stream<T> subjects) {
+            subjects.parallel().forEach(this::add);
+        }
+
+        @Override
+        public void remove(T subject) {
+            removeFirst(subject);
+        }
+
+        @Override
+        public int removeAll(Stream<T> subjects) {
+            return (int) subjects.parallel().filter(this::removeFirst).count();
+        }
+
+        @Override
+        public boolean contains(T subject) {
+            return maps.get().indexes.containsKey(subject);
+        }
+
+        @Override
+        public boolean containsAll(Stream<T> subjects) {
+            final Maps<T> current = maps.get();
+            return subjects.parallel().allMatch(current.indexes::containsKey);
+        }
+
+        @Override
+        public long size() {
+            return maps.get().entries.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return maps.get().entries.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            maps.set(new Maps<>());
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return maps.get().entries.values().iterator();
+        }
+
+        @Override
+        public Spliterator<T> spliterator() {
+            return maps.get().entries.values().spliterator();
+        }
+
+        @Override
+        public Optional<T> get(Integer index) {
+            return Optional.ofNullable(maps.get().entries.get(index));
+        }
+
+        @Override
+        public Stream<T> getAll() {
+            return maps.get().entries.values().stream();
+        }
+
+        @Override
+        public void remove(Integer index) {
+            final Maps<T> current = maps.get();
+            final T subject = current.entries.get(index);
+            if (subject != null)
+                release(current, subject, occupied -> occupied.remove(index) ? index : null);
+        }
+
+        private boolean removeFirst(T subject) {
+            return release(maps.get(), subject, NavigableSet::pollFirst);
+        }
+
+        /**
+         * @param index picks and unlinks index of the subject to remove, or returns null if there is none
+         */
+        private boolean release(Maps<T> current, T subject, Function<NavigableSet<Integer>, Integer> index) {
+            final boolean[] removed = {false};
+            current.indexes.computeIfPresent(subject, (s, occupied) -> {
+                final Integer released = index.apply(occupied);
+                if (released != null)
+                    removed[0] = current.entries.remove(released) != null;
+                return occupied.isEmpty() ? null : occupied;
+            });
+            return removed[0];
+        }
+
+        private static class Maps<T> {
+            private final ConcurrentSkipListMap<Integer, T> entries = new ConcurrentSkipListMap<>();
+            private final ConcurrentMap<T, NavigableSet<Integer>> indexes = new ConcurrentHashMap<>();
+        }
+    }
+
+    private static abstract class SlotRepository<T> implements Repository<T> {
+        private static final int INITIAL_CAPACITY = 16;
+
+        Object[] slots = new Object[INITIAL_CAPACITY];
+        int[] generations = new int[INITIAL_CAPACITY];
+        private int[] free = new int[INITIAL_CAPACITY];
+        private int freeCount;
+        private int limit;
+        private int size;
+
+        int allocate(T subject) {
+            Objects.requireNonNull(subject);
+
+            final int slot;
+            if (freeCount > 0) {
+                slot = free[--freeCount];
+            } else {
+                if (limit == slots.length) {
+                    slots = Arrays.copyOf(slots, limit * 2);
+                    generations = Arrays.copyOf(generations, limit * 2);
+                }
+                slot = limit++;
+            }
+
+            slots[slot] = subject;
+            size++;
+            return slot;
+        }
+
+        @SuppressWarnings("unchecked")
+        T slot(int slot) {
+            return slot >= 0 && slot < limit ? (T) slots[slot] : null;
+        }
+
+        boolean release(int slot) {
+            if (slot < 0 || slot >= limit || slots[slot] == null)
+                return false;
+
+            slots[slot] = null;
+            generations[slot] = (generations[slot] + 1) & Integer.MAX_VALUE;
+            if (freeCount == free.length)
+                free = Arrays.copyOf(free, freeCount * 2);
+            free[freeCount++] = slot;
+            size--;
+            return true;
+        }
+
+        int slotOf(Object subject) {
+            for (int i = 0; i < limit; i++)
+                if (subject.equals(slots[i]))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        public void addAll(Stream<T> subjects) {
+            subjects.forEachOrdered(this::add);
+        }
+
+        @Override
+        public void remove(T subject) {
+            release(slotOf(subject));
+        }
+
+        @Override
+        public int removeAll(Stream<T> subjects) {
+            return (int) subjects.filter(s -> release(slotOf(s))).count();
+        }
+
+        @Override
+        public boolean contains(T subject) {
+            return slotOf(subject) >= 0;
+        }
+
+        @Override
+        public boolean containsAll(Stream<T> subjects) {
+            return subjects.allMatch(this::contains);
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        @Override
+        public void clear() {
+            for (int i = 0; i < limit; i++)
+                release(i);
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int next = advance(0);
+
+                private int advance(int from) {
+                    while (from < limit && slots[from] == null)
+                        from++;
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < limit;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public T next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    final T subject = (T) slots[next];
+                    next = advance(next + 1);
+                    return subject;
+                }
+            };
+        }
+
+        public Stream<T> getAll() {
+            return stream();
+        }
+    }
+
+    private static class IntSlotSequenceRepository<T> extends SlotRepository<T> implements IntSequenceRepository<T> {
+
+        @Override
+        public int insert(T subject) {
+            return allocate(subject);
+        }
+
+        @Override
+        public T getOrNull(int index) {
+            return slot(index);
+        }
+
+        @Override
+        public boolean remove(int index) {
+            return release(index);
+        }
+
+        @Override
+        public boolean containsIndex(int index) {
+            return slot(index) != null;
+        }
+    }
+
+    private static class LongSlotSequenceRepository<T> extends SlotRepository<T> implements LongSequenceRepository<T> {
+
+        @Override
+        public long insert(T subject) {
+            final int slot = allocate(subject);
+            return (long) generations[slot] << 32 | slot;
+        }
+
+        @Override
+        public T getOrNull(long index) {
+            if (index < 0)
+                return null;
+
+            final int slot = (int) index;
+            final T subject = slot(slot);
+            return subject != null && generations[slot] == (int) (index >>> 32) ? subject : null;
+        }
+
+        @Override
+        public boolean remove(long index) {
+            return getOrNull(index) != null && release((int) index);
+        }
+
+        @Override
+        public boolean containsIndex(long index) {
+            return getOrNull(index) != null;
+        }
+    }
 }
@@ -0,0 +1,372 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.Repository;
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.codec.Codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes subjects of a {@link Repository} into a snapshot file and restores them back.
+ * <p>
+ * A snapshot is a header followed by independently encoded chunks of up to {@link #getChunkSize()} subjects:
+ * <pre>
+ *     header: int magic | int version | int flags | int chunks | long subjects
+ *     chunk:  int subjects | int raw length | int stored length | int crc32 | byte[stored length]
+ *     raw:    (int length | byte[length] encoded subject)*
+ * </pre>
+ * Chunks are optionally deflated, their crc32 covers the other fields of the chunk header and the stored bytes.
+ * Chunk headers are validated against the file before anything is allocated for them. On restore chunks are read sequentially and decoded by
+ * {@link #getParallelism()} threads, then added to the target repository in snapshot order from the calling
+ * thread, so target does not have to be thread-safe and sequence order is preserved.
+ * <p>
+ * Only subjects are stored: restoring into a {@link com.github.wingsofovnia.reppy.api.SequenceRepository}
+ * appends them in snapshot order, but indexes they had in the source repository are not preserved.
+ */
+public class RepositorySnapshot<T> {
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private static final int MAGIC = 0x52505353;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int CHUNK_HEADER_SIZE = 16;
+    private static final int FLAG_COMPRESSED = 1;
+
+    private static final AtomicInteger RESTORER_COUNT = new AtomicInteger();
+
+    private final Codec<T> codec;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean compressed;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public RepositorySnapshot(Codec<T> codec) {
+        this.codec = Objects.requireNonNull(codec);
+    }
+
+    /**
+     * Streams all subjects of the repository into a temporary file next to the given one, which is then
+     * atomically moved in its place, so the file is either replaced by a complete snapshot or left intact. The
+     * directory is forced as well, so the move itself survives a crash.
+     *
+     * @return number of written subjects
+     */
+    public long write(Repository<T> repository, Path file) {
+        final Path absolute = file.toAbsolutePath();
+        final Path temporary;
+        try {
+            temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to write snapshot " + file, e);
+        }
+
+        boolean moved = false;
+        try {
+            final long written;
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.position(HEADER_SIZE);
+
+                final ChunkWriter writer = new ChunkWriter(channel);
+                for (T subject : repository)
+                    writer.add(codec.encode(subject));
+                writer.close();
+
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                        .putInt(MAGIC).putInt(VERSION).putInt(compressed ? FLAG_COMPRESSED : 0)
+                        .putInt(writer.chunks).putLong(writer.subjects);
+                header.flip();
+                writeFully(channel, header, 0);
+                channel.force(false);
+                written = writer.subjects;
+            }
+
+            Files.move(temporary, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+            forceDirectory(absolute.getParent());
+            return written;
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to write snapshot " + file, e);
+        } finally {
+            if (!moved)
+                deleteQuietly(temporary);
+        }
+    }
+
+    /**
+     * Adds all subjects of the snapshot file to the repository.
+     * <p>
+     * Chunks are added as soon as they are decoded, before the rest of the file is validated, so a corrupted or
+     * truncated snapshot fails with {@link RepositoryException} leaving the subjects of its preceding chunks in
+     * the repository. Restore into an empty repository and {@link Repository#clear() clear} it on failure if
+     * that matters.
+     *
+     * @return number of restored subjects
+     */
+    public long restore(Path file, Repository<T> repository) {
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            final Thread thread = new Thread(r, "reppy-snapshot-" + RESTORER_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = readFully(channel, HEADER_SIZE, file);
+            if (header.getInt() != MAGIC)
+                throw new RepositoryException("Not a snapshot file: " + file);
+            final int version = header.getInt();
+            if (version != VERSION)
+                throw new RepositoryException("Unsupported snapshot version " + version + " in " + file);
+            final boolean inflate = (header.getInt() & FLAG_COMPRESSED) != 0;
+            final int chunks = header.getInt();
+            final long subjects = header.getLong();
+            if (chunks < 0 || subjects < 0)
+                throw new RepositoryException("Corrupted header of snapshot " + file);
+
+            final Deque<Future<List<T>>> pending = new ArrayDeque<>();
+            long restored = 0;
+            for (int i = 0; i < chunks; i++) {
+                final ByteBuffer chunkHeader = readFully(channel, CHUNK_HEADER_SIZE, file);
+                final int count = chunkHeader.getInt();
+                final int rawLength = chunkHeader.getInt();
+                final int storedLength = chunkHeader.getInt();
+                final int crc = chunkHeader.getInt();
+                if (!isValidChunk(count, rawLength, storedLength, inflate, channel.size() - channel.position()))
+                    throw new RepositoryException("Corrupted chunk header in snapshot " + file);
+                final ByteBuffer stored = readFully(channel, storedLength, file);
+
+                pending.add(executor.submit(() -> decode(stored, count, rawLength, crc, inflate, file)));
+                if (pending.size() >= parallelism * 2)
+                    restored += drain(pending.poll(), repository);
+            }
+            while (!pending.isEmpty())
+                restored += drain(pending.poll(), repository);
+
+            if (restored != subjects)
+                throw new RepositoryException("Snapshot " + file + " declares " + subjects + " subjects, found " + restored);
+            return restored;
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to read snapshot " + file, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Deflate expands data at most about 1032 times, so a larger raw length cannot be genuine.
+     */
+    private static boolean isValidChunk(int count, int rawLength, int storedLength, boolean inflate, long remaining) {
+        if (count < 0 || rawLength < 0 || storedLength < 0 || storedLength > remaining)
+            return false;
+        if (count > rawLength / Integer.BYTES)
+            return false;
+        return inflate ? rawLength <= storedLength * 1032L + 64 : rawLength == storedLength;
+    }
+
+    private List<T> decode(ByteBuffer stored, int count, int rawLength, int crc, boolean inflate, Path file) {
+        if (crc(count, rawLength, stored.array(), stored.limit()) != crc)
+            throw new RepositoryException("Corrupted chunk in snapshot " + file);
+
+        byte[] raw = stored.array();
+        if (inflate) {
+            raw = new byte[rawLength];
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored.array(), 0, stored.limit());
+                if (inflater.inflate(raw) != rawLength)
+                    throw new RepositoryException("Truncated chunk in snapshot " + file);
+            } catch (DataFormatException e) {
+                throw new RepositoryException("Corrupted chunk in snapshot " + file, e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        final List<T> subjects = new ArrayList<>(count);
+        final ByteBuffer buffer = ByteBuffer.wrap(raw, 0, rawLength);
+        for (int i = 0; i < count; i++) {
+            final int length = buffer.remaining() < Integer.BYTES ? -1 : buffer.getInt();
+            if (length < 0 || length > buffer.remaining())
+                throw new RepositoryException("Corrupted chunk in snapshot " + file);
+            final ByteBuffer encoded = buffer.slice();
+            encoded.limit(length);
+            subjects.add(codec.decode(encoded));
+            buffer.position(buffer.position() + length);
+        }
+        return subjects;
+    }
+
+    private long drain(Future<List<T>> chunk, Repository<T> repository) {
+        final List<T> subjects;
+        try {
+            subjects = chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Snapshot restore interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RepositoryException)
+                throw (RepositoryException) e.getCause();
+            throw new RepositoryException("Failed to decode snapshot chunk", e.getCause());
+        }
+        repository.addAll(subjects);
+        return subjects.size();
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int length, Path file) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                throw new RepositoryException("Unexpected end of snapshot " + file);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int crc(int count, int rawLength, byte[] stored, int storedLength) {
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(12).putInt(count).putInt(rawLength).putInt(storedLength).array(), 0, 12);
+        crc.update(stored, 0, storedLength);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Forces the directory entry of a moved file. Windows does not allow opening directories, and there the
+     * move is left to the file system.
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!System.getProperty("os.name", "").startsWith("Windows"))
+                throw e;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // the original exception is more relevant
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    public Codec<T> getCodec() {
+        return codec;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    private class ChunkWriter {
+        private final FileChannel channel;
+        private final Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        private ByteBuffer raw = ByteBuffer.allocate(64 * 1024);
+        private byte[] deflated = new byte[0];
+        private int count;
+        int chunks;
+        long subjects;
+
+        ChunkWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void add(byte[] encoded) throws IOException {
+            if (raw.remaining() < Integer.BYTES + encoded.length) {
+                final ByteBuffer grown = ByteBuffer.allocate(Math.max(raw.capacity() * 2,
+                        raw.position() + Integer.BYTES + encoded.length));
+                raw.flip();
+                raw = grown.put(raw);
+            }
+            raw.putInt(encoded.length).put(encoded);
+
+            subjects++;
+            if (++count == chunkSize)
+                flush();
+        }
+
+        void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                if (deflater != null)
+                    deflater.end();
+            }
+        }
+
+        void flush() throws IOException {
+            if (count == 0)
+                return;
+
+            final int rawLength = raw.position();
+            byte[] stored = raw.array();
+            int storedLength = rawLength;
+            if (deflater != null) {
+                if (deflated.length < rawLength + 64)
+                    deflated = new byte[rawLength + rawLength / 8 + 64];
+                deflater.reset();
+                deflater.setInput(stored, 0, rawLength);
+                deflater.finish();
+                storedLength = 0;
+                while (!deflater.finished()) {
+                    if (storedLength == deflated.length)
+                        deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                    storedLength += deflater.deflate(deflated, storedLength, deflated.length - storedLength);
+                }
+                stored = deflated;
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE)
+                    .putInt(count).putInt(rawLength).putInt(storedLength)
+                    .putInt(crc(count, rawLength, stored, storedLength));
+            header.flip();
+
+            final ByteBuffer[] buffers = {header, ByteBuffer.wrap(stored, 0, storedLength)};
+            while (buffers[1].hasRemaining())
+                channel.write(buffers);
+
+            chunks++;
+            count = 0;
+            raw.clear();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.Repository;
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Buffers mutations of the underlying {@link Repository} and applies them in batches.
+ * <p>
+ * Adds and removes are queued per entity. A remove following a queued add of the same entity drops the add
+ * but is queued itself, as the entity may already be in the underlying repository. An add following a queued
+ * remove is queued along with it, and the pair is applied as the remove and then the add. Queued mutations
+ * are flushed when the queue reaches {@code maxPending} entities, when {@code flushInterval} elapses, or on
+ * explicit {@link #flush()}/{@link #close()}. Reads see queued mutations; size and iteration flush first.
+ * <p>
+ * A flush is atomic only if the underlying repository is a {@link BatchWriter}, which applies the batch as one
+ * transaction. Otherwise it is one {@code removeAll} and then one {@code addAll} call, so a failure of
+ * {@code addAll} leaves removals and some additions applied, and a reader of the underlying repository may
+ * observe removals without the additions in between. A failed flush re-queues the whole batch, so such
+ * repository must tolerate removing already removed entities and adding already added ones again.
+ */
+public class WriteBehindRepository<T> implements Repository<T>, AutoCloseable {
+    private static final AtomicInteger FLUSHER_COUNT = new AtomicInteger();
+
+    private final Repository<T> repository;
+    private final int maxPending;
+
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private Map<T, Mutation> pending = new LinkedHashMap<>();
+    private Map<T, Mutation> inFlight = Collections.emptyMap();
+    private volatile boolean closed;
+
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private volatile RuntimeException lastFlushError;
+
+    public WriteBehindRepository(Repository<T> repository, int maxPending) {
+        this(repository, maxPending, 0, TimeUnit.MILLISECONDS);
+    }
+
+    public WriteBehindRepository(Repository<T> repository, int maxPending, long flushInterval, TimeUnit unit) {
+        if (maxPending <= 0)
+            throw new IllegalArgumentException("Max pending must be positive");
+        if (flushInterval < 0)
+            throw new IllegalArgumentException("Flush interval must not be negative");
+
+        this.repository = Objects.requireNonNull(repository);
+        this.maxPending = maxPending;
+
+        if (flushInterval > 0) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "reppy-write-behind-" + FLUSHER_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::scheduledFlush, flushInterval, flushInterval, unit);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    @Override
+    public void add(T subject) {
+        enqueue(Objects.requireNonNull(subject), Mutation.ADD);
+    }
+
+    @Override
+    public void addAll(Stream<T> subjects) {
+        subjects.forEachOrdered(this::add);
+    }
+
+    @Override
+    public void remove(T subject) {
+        enqueue(Objects.requireNonNull(subject), Mutation.REMOVE);
+    }
+
+    /**
+     * Flushes queued mutations and removes the subjects from the underlying repository right away, as the number
+     * of removed subjects is known only once they are removed.
+     *
+     * @return the number of subjects actually removed
+     */
+    @Override
+    public int removeAll(Stream<T> subjects) {
+        if (closed)
+            throw new RepositoryException("Repository is closed");
+
+        synchronized (flushLock) {
+            flush();
+            return repository.removeAll(subjects);
+        }
+    }
+
+    @Override
+    public boolean contains(T subject) {
+        final Mutation queued;
+        synchronized (lock) {
+            Mutation mutation = pending.get(subject);
+            queued = mutation != null ? mutation : inFlight.get(subject);
+        }
+        return queued != null ? queued != Mutation.REMOVE : repository.contains(subject);
+    }
+
+    @Override
+    public boolean containsAll(Stream<T> subjects) {
+        return subjects.allMatch(this::contains);
+    }
+
+    @Override
+    public long size() {
+        flush();
+        return repository.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        flush();
+        return repository.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (flushLock) {
+            synchronized (lock) {
+                cancelledCount.addAndGet(pending.size());
+                pending.clear();
+            }
+            repository.clear();
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        flush();
+        return repository.iterator();
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        flush();
+        return repository.spliterator();
+    }
+
+    /**
+     * Applies all queued mutations to the underlying repository. On failure the mutations are re-queued
+     * unless superseded by newer ones.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Map<T, Mutation> batch;
+            synchronized (lock) {
+                if (pending.isEmpty())
+                    return;
+                batch = pending;
+                inFlight = batch;
+                pending = new LinkedHashMap<>();
+            }
+
+            final List<T> additions = new ArrayList<>();
+            final List<T> removals = new ArrayList<>();
+            batch.forEach((subject, mutation) -> {
+                if (mutation != Mutation.ADD)
+                    removals.add(subject);
+                if (mutation != Mutation.REMOVE)
+                    additions.add(subject);
+            });
+
+            final long start = System.nanoTime();
+            try {
+                write(removals, additions);
+            } catch (RuntimeException e) {
+                synchronized (lock) {
+                    pending.forEach((subject, mutation) -> batch.merge(subject, mutation, Mutation::then));
+                    pending = batch;
+                }
+                final RuntimeException error = e instanceof RepositoryException
+                        ? e : new RepositoryException("Failed to flush mutations", e);
+                failedFlushCount.incrementAndGet();
+                lastFlushError = error;
+                throw error;
+            } finally {
+                synchronized (lock) {
+                    inFlight = Collections.emptyMap();
+                }
+            }
+
+            final long elapsed = System.nanoTime() - start;
+            flushCount.incrementAndGet();
+            flushedCount.addAndGet(batch.size());
+            totalFlushNanos.addAndGet(elapsed);
+            lastFlushNanos = elapsed;
+            if (elapsed > maxFlushNanos)
+                maxFlushNanos = elapsed;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void write(List<T> removals, List<T> additions) {
+        if (repository instanceof BatchWriter) {
+            ((BatchWriter<T>) repository).writeBatch(removals, additions);
+            return;
+        }
+
+        if (!removals.isEmpty())
+            repository.removeAll(removals.stream());
+        if (!additions.isEmpty())
+            repository.addAll(additions.stream());
+    }
+
+    /**
+     * Stops the periodic flusher and flushes queued mutations. Further mutations are rejected.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (flusher != null)
+            flusher.shutdown();
+        flush();
+    }
+
+    private void enqueue(T subject, Mutation mutation) {
+        final int depth;
+        synchronized (lock) {
+            if (closed)
+                throw new RepositoryException("Repository is closed");
+
+            final Mutation queued = pending.get(subject);
+            if (queued != null && queued != Mutation.REMOVE && mutation == Mutation.REMOVE)
+                cancelledCount.incrementAndGet();
+            pending.put(subject, queued == null ? mutation : queued.then(mutation));
+            depth = pending.size();
+        }
+
+        if (depth >= maxPending)
+            flush();
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (RepositoryException ignored) {
+            // mutations are re-queued and retried on the next flush, the failure is counted by flush
+        }
+    }
+
+    /**
+     * Repository able to apply removals and additions of a flush as one transaction.
+     */
+    public interface BatchWriter<T> {
+
+        /**
+         * Removes and then adds the subjects, either all of them or, on failure, none.
+         */
+        void writeBatch(Collection<T> removals, Collection<T> additions);
+    }
+
+    private enum Mutation {
+        ADD, REMOVE, REMOVE_THEN_ADD;
+
+        /**
+         * @return mutation having the same effect as this one followed by the next one
+         */
+        Mutation then(Mutation next) {
+            return next == ADD && this != ADD ? REMOVE_THEN_ADD : next;
+        }
+    }
+
+    public Repository<T> getRepository() {
+        return repository;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushCount.get();
+    }
+
+    /**
+     * @return the failure of the last failed flush, including scheduled ones, or null if none has failed
+     */
+    public RuntimeException getLastFlushError() {
+        return lastFlushError;
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    public long getLastFlushLatency(TimeUnit unit) {
+        return unit.convert(lastFlushNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxFlushLatency(TimeUnit unit) {
+        return unit.convert(maxFlushNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getAverageFlushLatency(TimeUnit unit) {
+        final long flushes = flushCount.get();
+        return flushes == 0 ? 0 : unit.convert(totalFlushNanos.get() / flushes, TimeUnit.NANOSECONDS);
+    }
+}
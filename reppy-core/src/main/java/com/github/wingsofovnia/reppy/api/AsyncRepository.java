@@ -0,0 +1,29 @@
+package com.github.wingsofovnia.reppy.api;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link Repository}. Every operation is executed asynchronously and its result,
+ * or {@link RepositoryException} it has failed with, is delivered through a {@link CompletableFuture}.
+ */
+public interface AsyncRepository<T> {
+
+    CompletableFuture<Void> add(T subject);
+
+    CompletableFuture<Void> addAll(Collection<T> subjects);
+
+    CompletableFuture<Void> remove(T subject);
+
+    CompletableFuture<Integer> removeAll(Collection<T> subjects);
+
+    CompletableFuture<Boolean> contains(T subject);
+
+    CompletableFuture<Boolean> containsAll(Collection<T> subjects);
+
+    CompletableFuture<Long> size();
+
+    CompletableFuture<Boolean> isEmpty();
+
+    CompletableFuture<Void> clear();
+}
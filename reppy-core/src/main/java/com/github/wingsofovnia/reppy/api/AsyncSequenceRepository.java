@@ -0,0 +1,23 @@
+package com.github.wingsofovnia.reppy.api;
+
+import java.io.Serializable;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking counterpart of {@link SequenceRepository}.
+ */
+public interface AsyncSequenceRepository<T, ID extends Serializable> extends AsyncRepository<T> {
+    CompletableFuture<Optional<T>> get(ID index);
+
+    /**
+     * Pushes every object to the action as it is read, without collecting them in memory.
+     *
+     * @param action called sequentially on the thread running the operation
+     * @return amount of objects passed to the action
+     */
+    CompletableFuture<Long> forEach(Consumer<? super T> action);
+
+    CompletableFuture<Void> remove(ID index);
+}
@@ -0,0 +1,42 @@
+package com.github.wingsofovnia.reppy.api;
+
+import java.util.Optional;
+
+/**
+ * {@link SequenceRepository} addressed by primitive {@code int} indexes. The primitive methods neither box
+ * the index nor allocate an {@link Optional}.
+ */
+public interface IntSequenceRepository<T> extends SequenceRepository<T, Integer> {
+
+    /**
+     * Adds the subject and returns the index it can be retrieved by.
+     */
+    int insert(T subject);
+
+    /**
+     * @return the subject stored under the index or {@code null} if there is none
+     */
+    T getOrNull(int index);
+
+    /**
+     * @return {@code true} if a subject was stored under the index
+     */
+    boolean remove(int index);
+
+    boolean containsIndex(int index);
+
+    @Override
+    default void add(T subject) {
+        insert(subject);
+    }
+
+    @Override
+    default Optional<T> get(Integer index) {
+        return Optional.ofNullable(getOrNull(index));
+    }
+
+    @Override
+    default void remove(Integer index) {
+        remove((int) index);
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.wingsofovnia.reppy.api;
+
+import java.util.Optional;
+
+/**
+ * {@link SequenceRepository} addressed by primitive {@code long} indexes. The primitive methods neither box
+ * the index nor allocate an {@link Optional}.
+ */
+public interface LongSequenceRepository<T> extends SequenceRepository<T, Long> {
+
+    /**
+     * Adds the subject and returns the index it can be retrieved by.
+     */
+    long insert(T subject);
+
+    /**
+     * @return the subject stored under the index or {@code null} if there is none
+     */
+    T getOrNull(long index);
+
+    /**
+     * @return {@code true} if a subject was stored under the index
+     */
+    boolean remove(long index);
+
+    boolean containsIndex(long index);
+
+    @Override
+    default void add(T subject) {
+        insert(subject);
+    }
+
+    @Override
+    default Optional<T> get(Long index) {
+        return Optional.ofNullable(getOrNull(index));
+    }
+
+    @Override
+    default void remove(Long index) {
+        remove((long) index);
+    }
+}
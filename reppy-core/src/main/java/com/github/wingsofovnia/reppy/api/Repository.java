@@ -36,6 +36,13 @@ public interface Repository<T> extends Iterable<T> {
 
     void clear();
 
+    /**
+     * @return subjects satisfying the specification, evaluated in memory unless overridden by the storage
+     */
+    default Stream<T> find(Specification<T> specification) {
+        return stream().filter(specification.toPredicate());
+    }
+
     default Stream<T> stream() {
         return StreamSupport.stream(spliterator(), false);
     }
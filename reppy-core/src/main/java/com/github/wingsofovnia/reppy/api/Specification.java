@@ -0,0 +1,116 @@
+package com.github.wingsofovnia.reppy.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Storage agnostic filter over attributes of {@code T}, built with {@link Specifications}.
+ * <p>
+ * A specification is an immutable tree of attribute comparisons combined with and/or/not. It can be
+ * evaluated in memory through {@link #toPredicate()} or translated by a storage specific repository, with
+ * the same result either way: comparisons of null attributes are unknown as in SQL, see {@link #toPredicate()}.
+ */
+public final class Specification<T> {
+    public enum Operator {
+        EQ, NE, LT, LE, GT, GE, BETWEEN, IN, LIKE, AND, OR, NOT
+    }
+
+    private final Operator operator;
+    private final String attribute;
+    private final List<Object> values;
+    private final List<Specification<T>> operands;
+
+    private volatile Predicate<T> predicate;
+
+    Specification(Operator operator, String attribute, Object... values) {
+        this.operator = operator;
+        this.attribute = Objects.requireNonNull(attribute, "Attribute must be not null");
+        this.values = Collections.unmodifiableList(Arrays.asList(values));
+        this.operands = Collections.emptyList();
+    }
+
+    /**
+     * @param right second operand, or null for a unary operator
+     */
+    private Specification(Operator operator, Specification<T> left, Specification<T> right) {
+        this.operator = operator;
+        this.attribute = null;
+        this.values = Collections.emptyList();
+
+        final List<Specification<T>> operands = new ArrayList<>(2);
+        operands.add(left);
+        if (right != null)
+            operands.add(right);
+        this.operands = Collections.unmodifiableList(operands);
+    }
+
+    public Specification<T> and(Specification<T> other) {
+        Objects.requireNonNull(other, "Other specification must be not null");
+        return new Specification<>(Operator.AND, this, other);
+    }
+
+    public Specification<T> or(Specification<T> other) {
+        Objects.requireNonNull(other, "Other specification must be not null");
+        return new Specification<>(Operator.OR, this, other);
+    }
+
+    public Specification<T> not() {
+        return new Specification<>(Operator.NOT, this, null);
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return compared attribute or {@code null} for and/or/not
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public List<Object> getValues() {
+        return values;
+    }
+
+    public List<Specification<T>> getOperands() {
+        return operands;
+    }
+
+    public boolean isComposite() {
+        return attribute == null;
+    }
+
+    /**
+     * Compiles this specification into a predicate on first use. Attribute accessors are resolved once per
+     * subject class and cached, so evaluation does no reflective lookups.
+     * <p>
+     * Predicate follows SQL three-valued logic: a comparison of a null attribute is unknown, and so is its
+     * negation, so neither {@code lt("x", 5)} nor its {@code not()} matches a subject whose x is null. Equality
+     * with null is the exception and tests for null like {@code IS NULL} does, so does a null among values of
+     * {@code in}.
+     */
+    public Predicate<T> toPredicate() {
+        Predicate<T> compiled = predicate;
+        if (compiled == null)
+            predicate = compiled = SpecificationCompiler.compile(this);
+        return compiled;
+    }
+
+    @Override
+    public String toString() {
+        switch (operator) {
+            case AND:
+            case OR:
+                return "(" + operands.get(0) + " " + operator + " " + operands.get(1) + ")";
+            case NOT:
+                return "NOT " + operands.get(0);
+            default:
+                return attribute + " " + operator + " " + values;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.github.wingsofovnia.reppy.api;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+final class SpecificationCompiler {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<ConcurrentMap<String, MethodHandle>> ACCESSORS =
+            new ClassValue<ConcurrentMap<String, MethodHandle>>() {
+                @Override
+                protected ConcurrentMap<String, MethodHandle> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<>();
+                }
+            };
+
+    private SpecificationCompiler() {
+        throw new AssertionError("No instance for you");
+    }
+
+    /**
+     * Compiles specification into a predicate following SQL three-valued logic: a comparison of a null
+     * attribute, or with a null operand, is unknown, {@code NOT} of unknown is unknown, and only subjects for
+     * which the whole specification is true match. {@code eq}/{@code ne} with null test for null and not null,
+     * as {@code IS NULL}/{@code IS NOT NULL} do, and a null among {@code in} values matches null attributes.
+     */
+    static <T> Predicate<T> compile(Specification<T> specification) {
+        final Condition<T> condition = condition(specification);
+        return subject -> condition.evaluate(subject) == Truth.TRUE;
+    }
+
+    private static <T> Condition<T> condition(Specification<T> specification) {
+        final List<Specification<T>> operands = specification.getOperands();
+        switch (specification.getOperator()) {
+            case AND: {
+                final Condition<T> left = condition(operands.get(0));
+                final Condition<T> right = condition(operands.get(1));
+                return subject -> {
+                    final Truth first = left.evaluate(subject);
+                    return first == Truth.FALSE ? first : first.and(right.evaluate(subject));
+                };
+            }
+            case OR: {
+                final Condition<T> left = condition(operands.get(0));
+                final Condition<T> right = condition(operands.get(1));
+                return subject -> {
+                    final Truth first = left.evaluate(subject);
+                    return first == Truth.TRUE ? first : first.or(right.evaluate(subject));
+                };
+            }
+            case NOT: {
+                final Condition<T> operand = condition(operands.get(0));
+                return subject -> operand.evaluate(subject).not();
+            }
+            default:
+                return new Comparison<>(specification.getAttribute(), test(specification));
+        }
+    }
+
+    private static Function<Object, Truth> test(Specification<?> specification) {
+        final List<Object> values = specification.getValues();
+        final Object value = values.isEmpty() ? null : values.get(0);
+        switch (specification.getOperator()) {
+            case EQ:
+                if (value == null)
+                    return v -> Truth.of(v == null);
+                return known(v -> equal(v, value));
+            case NE:
+                if (value == null)
+                    return v -> Truth.of(v != null);
+                return known(v -> !equal(v, value));
+            case LT:
+                return ordered(value, order -> order < 0);
+            case LE:
+                return ordered(value, order -> order <= 0);
+            case GT:
+                return ordered(value, order -> order > 0);
+            case GE:
+                return ordered(value, order -> order >= 0);
+            case BETWEEN:
+                final Function<Object, Truth> lower = ordered(value, order -> order >= 0);
+                final Function<Object, Truth> upper = ordered(values.get(1), order -> order <= 0);
+                return v -> lower.apply(v).and(upper.apply(v));
+            case IN:
+                if (values.isEmpty())
+                    return v -> Truth.FALSE;
+
+                final Set<Object> set = new HashSet<>(values);
+                final boolean numeric = values.stream().anyMatch(Number.class::isInstance);
+                final Truth ifNull = set.contains(null) ? Truth.TRUE : Truth.UNKNOWN;
+                return v -> {
+                    if (v == null)
+                        return ifNull;
+                    return Truth.of(set.contains(v) || numeric && v instanceof Number
+                            && values.stream().anyMatch(x -> equal(v, x)));
+                };
+            case LIKE:
+                final Pattern pattern = like((String) value);
+                return known(v -> pattern.matcher(v.toString()).matches());
+            default:
+                throw new IllegalArgumentException("Not a comparison: " + specification);
+        }
+    }
+
+    private static Function<Object, Truth> known(Predicate<Object> test) {
+        return v -> v == null ? Truth.UNKNOWN : Truth.of(test.test(v));
+    }
+
+    private static Function<Object, Truth> ordered(Object value, IntPredicate order) {
+        if (value == null)
+            return v -> Truth.UNKNOWN;
+        return known(v -> order.test(compare(v, value)));
+    }
+
+    static boolean equal(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass())
+            return compare(a, b) == 0;
+        return Objects.equals(a, b);
+    }
+
+    @SuppressWarnings("unchecked")
+    static int compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+            if (isIntegral(a) && isIntegral(b))
+                return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            if (a instanceof BigDecimal || b instanceof BigDecimal || a instanceof BigInteger || b instanceof BigInteger)
+                return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private static boolean isIntegral(Object number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    static Pattern like(String pattern) {
+        final StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '%')
+                regex.append(".*");
+            else if (c == '_')
+                regex.append('.');
+            else
+                regex.append(Pattern.quote(String.valueOf(c)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    static MethodHandle accessor(Class<?> type, String attribute) {
+        return ACCESSORS.get(type).computeIfAbsent(attribute, a -> resolve(type, a));
+    }
+
+    private static MethodHandle resolve(Class<?> type, String attribute) {
+        final String suffix = Character.toUpperCase(attribute.charAt(0)) + attribute.substring(1);
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (String name : new String[]{"get" + suffix, "is" + suffix}) {
+                try {
+                    final Method method = c.getDeclaredMethod(name);
+                    if (!Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class)
+                        return getter(method);
+                } catch (NoSuchMethodException ignored) {
+                }
+            }
+            try {
+                final Field field = c.getDeclaredField(attribute);
+                if (!Modifier.isStatic(field.getModifiers()))
+                    return getter(field);
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+        throw new RepositoryException("No attribute '" + attribute + "' in " + type.getName());
+    }
+
+    private static MethodHandle getter(Member member) {
+        try {
+            ((AccessibleObject) member).setAccessible(true);
+
+            final MethodHandle handle;
+            if (member instanceof Field)
+                handle = MethodHandles.lookup().unreflectGetter((Field) member);
+            else
+                handle = MethodHandles.lookup().unreflect((Method) member);
+
+            return handle.asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new RepositoryException("Failed to access attribute " + member, e);
+        }
+    }
+
+    private enum Truth {
+        FALSE, TRUE, UNKNOWN;
+
+        static Truth of(boolean value) {
+            return value ? TRUE : FALSE;
+        }
+
+        Truth not() {
+            return this == UNKNOWN ? UNKNOWN : of(this == FALSE);
+        }
+
+        Truth and(Truth other) {
+            if (this == FALSE || other == FALSE)
+                return FALSE;
+            return this == TRUE && other == TRUE ? TRUE : UNKNOWN;
+        }
+
+        Truth or(Truth other) {
+            if (this == TRUE || other == TRUE)
+                return TRUE;
+            return this == FALSE && other == FALSE ? FALSE : UNKNOWN;
+        }
+    }
+
+    private interface Condition<T> {
+        Truth evaluate(T subject);
+    }
+
+    /**
+     * Attribute comparison with a monomorphic inline cache of the accessor for the last seen subject class.
+     */
+    private static final class Comparison<T> implements Condition<T> {
+        private final String attribute;
+        private final Function<Object, Truth> test;
+        private volatile Binding binding;
+
+        Comparison(String attribute, Function<Object, Truth> test) {
+            this.attribute = attribute;
+            this.test = test;
+        }
+
+        @Override
+        public Truth evaluate(T subject) {
+            if (subject == null)
+                return Truth.UNKNOWN;
+
+            Binding current = binding;
+            if (current == null || current.type != subject.getClass())
+                binding = current = new Binding(subject.getClass(), accessor(subject.getClass(), attribute));
+
+            final Object value;
+            try {
+                value = (Object) current.getter.invokeExact((Object) subject);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RepositoryException("Failed to read attribute " + attribute, e);
+            }
+            return test.apply(value);
+        }
+    }
+
+    private static final class Binding {
+        final Class<?> type;
+        final MethodHandle getter;
+
+        Binding(Class<?> type, MethodHandle getter) {
+            this.type = type;
+            this.getter = getter;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.wingsofovnia.reppy.api;
+
+import com.github.wingsofovnia.reppy.api.Specification.Operator;
+
+import java.util.Collection;
+import java.util.Objects;
+
+public class Specifications<T> {
+    private Specifications() {}
+
+    public static <E> Specifications<E> of(Class<E> entity) {
+        return new Specifications<>();
+    }
+
+    public <Y> Specification<T> eq(String key, Y value) {
+        return new Specification<>(Operator.EQ, key, value);
+    }
+
+    public <Y> Specification<T> ne(String key, Y value) {
+        return new Specification<>(Operator.NE, key, value);
+    }
+
+    public <Y extends Comparable<? super Y>> Specification<T> le(String key, Y value) {
+        return new Specification<>(Operator.LE, key, value);
+    }
+
+    public <Y extends Comparable<? super Y>> Specification<T> lt(String key, Y value) {
+        return new Specification<>(Operator.LT, key, value);
+    }
+
+    public <Y extends Comparable<? super Y>> Specification<T> ge(String key, Y value) {
+        return new Specification<>(Operator.GE, key, value);
+    }
+
+    public <Y extends Comparable<? super Y>> Specification<T> gt(String key, Y value) {
+        return new Specification<>(Operator.GT, key, value);
+    }
+
+    public <Y extends Comparable<? super Y>> Specification<T> between(String key, Y v1, Y v2) {
+        return new Specification<>(Operator.BETWEEN, key, v1, v2);
+    }
+
+    public <Y> Specification<T> in(String key, Collection<Y> values) {
+        return new Specification<>(Operator.IN, key, values.toArray());
+    }
+
+    public Specification<T> like(String key, String pattern) {
+        return new Specification<>(Operator.LIKE, key, Objects.requireNonNull(pattern, "Pattern must be not null"));
+    }
+}
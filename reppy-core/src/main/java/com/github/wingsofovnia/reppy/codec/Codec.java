@@ -0,0 +1,16 @@
+package com.github.wingsofovnia.reppy.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts subjects to bytes and back for repositories that store them outside of the heap.
+ */
+public interface Codec<T> {
+    byte[] encode(T subject);
+
+    /**
+     * Decodes subject from the remaining bytes of the buffer. The buffer may be a view of a memory-mapped file
+     * and must not be retained after the call.
+     */
+    T decode(ByteBuffer buffer);
+}
@@ -0,0 +1,78 @@
+package com.github.wingsofovnia.reppy.codec;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class Codecs {
+    private Codecs() {
+        throw new AssertionError("No instance for you");
+    }
+
+    /**
+     * @return codec based on Java serialization
+     */
+    public static <T extends Serializable> Codec<T> serializable() {
+        return new Codec<T>() {
+            @Override
+            public byte[] encode(T subject) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(subject);
+                } catch (IOException e) {
+                    throw new RepositoryException("Failed to serialize " + subject, e);
+                }
+                return bytes.toByteArray();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T decode(ByteBuffer buffer) {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes(buffer)))) {
+                    return (T) in.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    throw new RepositoryException("Failed to deserialize object", e);
+                }
+            }
+        };
+    }
+
+    public static Codec<String> utf8() {
+        return new Codec<String>() {
+            @Override
+            public byte[] encode(String subject) {
+                return subject.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String decode(ByteBuffer buffer) {
+                if (buffer.hasArray())
+                    return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                            StandardCharsets.UTF_8);
+                return new String(bytes(buffer), StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    public static Codec<Long> longs() {
+        return new Codec<Long>() {
+            @Override
+            public byte[] encode(Long subject) {
+                return ByteBuffer.allocate(Long.BYTES).putLong(subject).array();
+            }
+
+            @Override
+            public Long decode(ByteBuffer buffer) {
+                return buffer.getLong(buffer.position());
+            }
+        };
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.wingsofovnia.reppy.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of latencies in nanoseconds.
+ * <p>
+ * Values below 32 get a bucket each, larger ones are split into 32 buckets per power of two, so any
+ * percentile is reported within about 3% of the recorded value. Every bucket is a {@link LongAdder}, so
+ * threads recording latencies of the same magnitude do not contend on one counter. Buckets are created on first
+ * use, as latencies of an operation fall into a few dozen of them; afterwards recording does not allocate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicReferenceArray<LongAdder> counts = new AtomicReferenceArray<>(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        counter(bucket(value)).increment();
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long recorded = count.sum();
+        return recorded == 0 ? 0 : (double) total.sum() / recorded;
+    }
+
+    /**
+     * @param percentile in range (0, 100]
+     * @return upper bound of the bucket the percentile falls into, in nanoseconds
+     */
+    public long getPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be in (0, 100]");
+
+        final long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            recorded += snapshot[i] = count(i);
+        if (recorded == 0)
+            return 0;
+
+        final long rank = (long) Math.ceil(recorded * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            final LongAdder bucket = counts.get(i);
+            if (bucket != null)
+                bucket.reset();
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    private LongAdder counter(int bucket) {
+        final LongAdder counter = counts.get(bucket);
+        if (counter != null)
+            return counter;
+
+        counts.compareAndSet(bucket, null, new LongAdder());
+        return counts.get(bucket);
+    }
+
+    private long count(int bucket) {
+        final LongAdder counter = counts.get(bucket);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.wingsofovnia.reppy.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call, error and row counters along with a latency histogram of a single repository operation.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    void record(long nanos, long rows) {
+        calls.increment();
+        if (rows != 0)
+            this.rows.add(rows);
+        latency.record(nanos);
+    }
+
+    void row() {
+        rows.increment();
+    }
+
+    void failed(long nanos) {
+        calls.increment();
+        errors.increment();
+        latency.record(nanos);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return latency.getMean() / 1000;
+    }
+
+    @Override
+    public long getP50Latency() {
+        return micros(latency.getPercentile(50));
+    }
+
+    @Override
+    public long getP99Latency() {
+        return micros(latency.getPercentile(99));
+    }
+
+    @Override
+    public long getP999Latency() {
+        return micros(latency.getPercentile(99.9));
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return micros(latency.getMax());
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        rows.reset();
+        latency.reset();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
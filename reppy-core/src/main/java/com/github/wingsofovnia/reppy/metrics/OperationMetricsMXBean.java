@@ -0,0 +1,24 @@
+package com.github.wingsofovnia.reppy.metrics;
+
+/**
+ * JMX view of {@link OperationMetrics}, latencies are in microseconds.
+ */
+public interface OperationMetricsMXBean {
+    long getCalls();
+
+    long getErrors();
+
+    long getRows();
+
+    double getMeanLatency();
+
+    long getP50Latency();
+
+    long getP99Latency();
+
+    long getP999Latency();
+
+    long getMaxLatency();
+
+    void reset();
+}
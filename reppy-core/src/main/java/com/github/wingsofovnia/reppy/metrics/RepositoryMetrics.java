@@ -0,0 +1,326 @@
+package com.github.wingsofovnia.reppy.metrics;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Per-operation metrics of a repository. Each operation is published as an {@link OperationMetricsMXBean}
+ * named {@code com.github.wingsofovnia.reppy:type=<name>,entity=<entity class>,operation=<operation>} once
+ * {@link #register()} is called.
+ */
+public class RepositoryMetrics {
+    public static final String DOMAIN = "com.github.wingsofovnia.reppy";
+
+    public enum Operation {
+        ADD, ADD_ALL, REMOVE, REMOVE_ALL, CONTAINS, CONTAINS_ALL, SIZE, IS_EMPTY, CLEAR, ITERATE, GET, GET_ALL, FIND,
+        /**
+         * A single query fetching a page of rows, recorded by storage specific repositories.
+         */
+        FETCH,
+        /**
+         * Removals and additions of a write-behind flush applied as one transaction by storage specific repositories.
+         */
+        WRITE_BATCH
+    }
+
+    private final Class<?> entityClass;
+    private final String name;
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+    private final List<ObjectName> registered = new ArrayList<>();
+    private MBeanServer server;
+
+    public RepositoryMetrics(Class<?> entityClass) {
+        this(entityClass, "Repository");
+    }
+
+    public RepositoryMetrics(Class<?> entityClass, String name) {
+        this.entityClass = Objects.requireNonNull(entityClass);
+        this.name = Objects.requireNonNull(name);
+        for (Operation operation : Operation.values())
+            operations.put(operation, new OperationMetrics());
+    }
+
+    public OperationMetrics get(Operation operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * Records a successful call that started at {@code startNanos} as of {@link System#nanoTime()}.
+     */
+    public void record(Operation operation, long startNanos, long rows) {
+        operations.get(operation).record(System.nanoTime() - startNanos, rows);
+    }
+
+    public void failed(Operation operation, long startNanos) {
+        operations.get(operation).failed(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records the operation once the terminal operation of the stream has traversed all of its parts, as failed
+     * if the traversal, including the consumer, has thrown, counting streamed subjects as rows as they pass.
+     * A stream stopped early, e.g. by {@link Stream#findFirst()}, is recorded once it is closed.
+     */
+    public <T> Stream<T> stream(Operation operation, long startNanos, Stream<T> stream) {
+        final Completion completion = new Completion(operations.get(operation), startNanos);
+        return StreamSupport.stream(new CountingSpliterator<>(stream.spliterator(), operations.get(operation),
+                completion), stream.isParallel()).onClose(stream::close).onClose(completion::succeeded);
+    }
+
+    /**
+     * Counts subjects pulled through the stream as rows of the operation. Unlike {@link Stream#peek}, the count
+     * is not skipped by terminal operations such as {@link Stream#count()} that may compute their result
+     * without traversing a sized stream.
+     */
+    public <T> Stream<T> counted(Operation operation, Stream<T> stream) {
+        return StreamSupport.stream(new CountingSpliterator<>(stream.spliterator(), operations.get(operation), null),
+                stream.isParallel()).onClose(stream::close);
+    }
+
+    /**
+     * Records the operation once the iterator is exhausted, or as failed once it throws, counting iterated
+     * subjects as rows. An iterator abandoned before its end is not recorded.
+     */
+    public <T> Iterator<T> iterator(Operation operation, long startNanos, Iterator<T> iterator) {
+        return new Iterator<T>() {
+            private long iterated;
+            private boolean recorded;
+
+            @Override
+            public boolean hasNext() {
+                final boolean hasNext;
+                try {
+                    hasNext = iterator.hasNext();
+                } catch (RuntimeException | Error e) {
+                    failed();
+                    throw e;
+                }
+                if (!hasNext && !recorded) {
+                    recorded = true;
+                    record(operation, startNanos, iterated);
+                }
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                final T next;
+                try {
+                    next = iterator.next();
+                } catch (NoSuchElementException e) {
+                    throw e;
+                } catch (RuntimeException | Error e) {
+                    failed();
+                    throw e;
+                }
+                iterated++;
+                return next;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+
+            private void failed() {
+                if (!recorded) {
+                    recorded = true;
+                    RepositoryMetrics.this.failed(operation, startNanos);
+                }
+            }
+        };
+    }
+
+    public void register() {
+        register(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public synchronized void register(MBeanServer server) {
+        if (this.server != null)
+            throw new IllegalStateException("Metrics are already registered");
+
+        this.server = server;
+        try {
+            for (Map.Entry<Operation, OperationMetrics> operation : operations.entrySet())
+                registered.add(server.registerMBean(operation.getValue(), objectName(operation.getKey())).getObjectName());
+        } catch (JMException e) {
+            unregister();
+            throw new RepositoryException("Failed to register metrics of " + entityClass.getName(), e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (server == null)
+            return;
+
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException ignored) {
+                // unregistered elsewhere
+            }
+        }
+        registered.clear();
+        server = null;
+    }
+
+    public ObjectName objectName(Operation operation) {
+        try {
+            return new ObjectName(DOMAIN + ":type=" + ObjectName.quote(name)
+                    + ",entity=" + ObjectName.quote(entityClass.getName())
+                    + ",operation=" + operation.name().toLowerCase());
+        } catch (JMException e) {
+            throw new RepositoryException("Invalid metrics name " + name, e);
+        }
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a streaming call once, when all parts of its spliterator are traversed, its traversal fails or the
+     * stream is closed, whichever comes first.
+     */
+    private static class Completion {
+        private final OperationMetrics metrics;
+        private final long startNanos;
+        private final AtomicInteger parts = new AtomicInteger(1);
+        private final AtomicBoolean recorded = new AtomicBoolean();
+
+        Completion(OperationMetrics metrics, long startNanos) {
+            this.metrics = metrics;
+            this.startNanos = startNanos;
+        }
+
+        void split() {
+            parts.incrementAndGet();
+        }
+
+        void traversed() {
+            if (parts.decrementAndGet() == 0)
+                succeeded();
+        }
+
+        void succeeded() {
+            if (recorded.compareAndSet(false, true))
+                metrics.record(System.nanoTime() - startNanos, 0);
+        }
+
+        void failed() {
+            if (recorded.compareAndSet(false, true))
+                metrics.failed(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Hides the size of the source, so every subject is actually traversed and counted.
+     */
+    private static class CountingSpliterator<T> implements Spliterator<T>, Consumer<T> {
+        private final Spliterator<T> source;
+        private final OperationMetrics metrics;
+        private final Completion completion;
+        private Consumer<? super T> action;
+        private boolean traversed;
+
+        /**
+         * @param completion of the call, or null if the call is recorded elsewhere
+         */
+        CountingSpliterator(Spliterator<T> source, OperationMetrics metrics, Completion completion) {
+            this.source = source;
+            this.metrics = metrics;
+            this.completion = completion;
+        }
+
+        @Override
+        public void accept(T subject) {
+            metrics.row();
+            action.accept(subject);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            this.action = action;
+            final boolean advanced;
+            try {
+                advanced = source.tryAdvance(this);
+            } catch (RuntimeException | Error e) {
+                failed();
+                throw e;
+            }
+            if (!advanced)
+                traversed();
+            return advanced;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            this.action = action;
+            try {
+                source.forEachRemaining(this);
+            } catch (RuntimeException | Error e) {
+                failed();
+                throw e;
+            }
+            traversed();
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            final Spliterator<T> split = source.trySplit();
+            if (split == null)
+                return null;
+            if (completion != null)
+                completion.split();
+            return new CountingSpliterator<>(split, metrics, completion);
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return source.characteristics() & ~(Spliterator.SIZED | Spliterator.SUBSIZED);
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return source.getComparator();
+        }
+
+        private void traversed() {
+            if (!traversed && completion != null) {
+                traversed = true;
+                completion.traversed();
+            }
+        }
+
+        private void failed() {
+            if (completion != null)
+                completion.failed();
+        }
+    }
+}
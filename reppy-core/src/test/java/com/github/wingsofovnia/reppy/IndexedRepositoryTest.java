@@ -0,0 +1,131 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.api.Specification;
+import com.github.wingsofovnia.reppy.api.Specifications;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class IndexedRepositoryTest {
+
+    private IndexedRepository<Item> repository;
+
+    @Before
+    public void init() {
+        repository = new IndexedRepository<>(JCFRepositories.from(new HashSet<Item>()));
+        repository.add(new Item("a", "new", 10));
+        repository.add(new Item("b", "sold", 20));
+
+        repository.addUniqueIndex("sku", item -> item.sku)
+                .addHashIndex("status", item -> item.status)
+                .addSortedIndex("price", item -> item.price);
+
+        repository.addAll(Arrays.asList(new Item("c", "new", 30), new Item("d", "new", 40)));
+    }
+
+    @Test
+    public void indexLookupTest() {
+        assertEquals(3, repository.find("status", "new").count());
+        assertEquals("b", repository.findUnique("sku", "b").get().sku);
+        assertFalse(repository.findUnique("sku", "x").isPresent());
+
+        assertEquals(Arrays.asList("b", "c"), skus(repository.findBetween("price", 20, 30).collect(Collectors.toList())));
+        assertEquals(Arrays.asList("c", "d"), skus(repository.findRange("price", 20, false, null, false).collect(Collectors.toList())));
+        assertEquals(0, repository.findBetween("price", 40, 10).count());
+    }
+
+    @Test
+    public void indexConsistencyTest() {
+        try {
+            repository.add(new Item("a", "sold", 50));
+            fail();
+        } catch (RepositoryException e) {
+            assertEquals(4, repository.size());
+        }
+
+        repository.remove(repository.findUnique("sku", "c").get());
+        assertEquals(2, repository.find("status", "new").count());
+        assertEquals(Arrays.asList("d"), skus(repository.findBetween("price", 25, 100).collect(Collectors.toList())));
+
+        assertEquals(1, repository.removeAll(repository.find("status", "sold").collect(Collectors.toList())));
+        assertFalse(repository.findUnique("sku", "b").isPresent());
+
+        repository.clear();
+        assertEquals(0, repository.find("status", "new").count());
+        assertEquals(0, repository.findBetween("price", null, null).count());
+    }
+
+    @Test
+    public void indexedSpecificationTest() {
+        Specifications<Item> specifications = Specifications.of(Item.class);
+        List<Specification<Item>> queries = Arrays.asList(
+                specifications.eq("status", "new"),
+                specifications.eq("status", "new").and(specifications.gt("price", 15)),
+                specifications.between("price", 15, 35).or(specifications.eq("sku", "a")),
+                specifications.in("sku", Arrays.asList("a", "d", "x")),
+                specifications.ge("price", 30L),
+                specifications.like("sku", "_").and(specifications.eq("status", "sold").not()));
+
+        for (Specification<Item> query : queries) {
+            List<String> scanned = skus(repository.stream().filter(query.toPredicate()).collect(Collectors.toList()));
+            List<String> indexed = skus(repository.find(query).collect(Collectors.toList()));
+            scanned.sort(null);
+            indexed.sort(null);
+            assertEquals(query.toString(), scanned, indexed);
+        }
+
+        assertEquals(Arrays.asList("c", "d"), skus(repository.find(queries.get(4))
+                .sorted(Comparator.comparing(item -> item.sku)).collect(Collectors.toList())));
+    }
+
+    @Test
+    public void indexedAddAllTest() {
+        InstrumentedRepository<Item> instrumented =
+                new InstrumentedRepository<>(JCFRepositories.from(new HashSet<Item>()), Item.class);
+        IndexedRepository<Item> indexed = new IndexedRepository<>(instrumented)
+                .addUniqueIndex("sku", item -> item.sku)
+                .addSortedIndex("price", item -> item.price);
+
+        indexed.addAll(Arrays.asList(new Item("a", "new", 10), new Item("b", "new", 20)));
+        assertEquals(1, instrumented.getMetrics().get(Operation.ADD_ALL).getCalls());
+        assertEquals(0, instrumented.getMetrics().get(Operation.ADD).getCalls());
+        assertEquals(Arrays.asList("a", "b"), skus(indexed.findBetween("price", 0, 100).collect(Collectors.toList())));
+
+        try {
+            indexed.addAll(Arrays.asList(new Item("c", "new", 30), new Item("c", "sold", 40)));
+            fail();
+        } catch (RepositoryException e) {
+            assertEquals(2, indexed.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sortedIndexWrongKeyTest() {
+        repository.find("price", "10");
+    }
+
+    private static List<String> skus(List<Item> items) {
+        return items.stream().map(item -> item.sku).collect(Collectors.toList());
+    }
+
+    private static class Item {
+        final String sku;
+        final String status;
+        final Integer price;
+
+        Item(String sku, String status, Integer price) {
+            this.sku = sku;
+            this.status = status;
+            this.price = price;
+        }
+    }
+}
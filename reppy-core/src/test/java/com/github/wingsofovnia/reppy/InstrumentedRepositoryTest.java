@@ -0,0 +1,127 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.api.SequenceRepository;
+import com.github.wingsofovnia.reppy.metrics.LatencyHistogram;
+import com.github.wingsofovnia.reppy.metrics.OperationMetrics;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedRepositoryTest {
+
+    @Test
+    public void instrumentedRepositoryTest() {
+        SequenceRepository<String, Integer> list = JCFRepositories.from(new ArrayList<>());
+        InstrumentedSequenceRepository<String, Integer> repository = new InstrumentedSequenceRepository<>(list, String.class);
+        RepositoryMetrics metrics = repository.getMetrics();
+
+        repository.add("a");
+        repository.addAll(Arrays.asList("b", "c", "d"));
+        assertTrue(repository.contains("a"));
+        assertEquals("b", repository.get(1).get());
+        try (Stream<String> all = repository.getAll()) {
+            assertEquals(4, all.count());
+        }
+        repository.forEach(s -> { });
+        try {
+            repository.addAll((Stream<String>) null);
+            fail();
+        } catch (RuntimeException expected) {
+        }
+
+        assertEquals(1, metrics.get(Operation.ADD).getCalls());
+        assertEquals(2, metrics.get(Operation.ADD_ALL).getCalls());
+        assertEquals(1, metrics.get(Operation.ADD_ALL).getErrors());
+        assertEquals(3, metrics.get(Operation.ADD_ALL).getRows());
+        assertEquals(1, metrics.get(Operation.GET).getRows());
+        assertEquals(4, metrics.get(Operation.GET_ALL).getRows());
+        assertEquals(4, metrics.get(Operation.ITERATE).getRows());
+        assertEquals(0, metrics.get(Operation.CLEAR).getCalls());
+    }
+
+    @Test
+    public void instrumentedStreamCompletionTest() {
+        InstrumentedRepository<Integer> repository = new InstrumentedRepository<>(JCFRepositories.concurrent(), Integer.class);
+        repository.addAll(IntStream.range(0, 1000).boxed().collect(Collectors.toList()));
+        OperationMetrics iterate = repository.getMetrics().get(Operation.ITERATE);
+
+        assertEquals(1000, repository.stream().collect(Collectors.toList()).size());
+        assertEquals(1, iterate.getCalls());
+        assertEquals(499500L, repository.stream().parallel().mapToLong(Integer::longValue).sum());
+        assertEquals(2, iterate.getCalls());
+
+        try {
+            repository.stream().forEach(i -> {
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(3, iterate.getCalls());
+        assertEquals(1, iterate.getErrors());
+
+        try (Stream<Integer> stream = repository.stream()) {
+            assertTrue(stream.findFirst().isPresent());
+        }
+        assertEquals(4, iterate.getCalls());
+        assertEquals(2002, iterate.getRows());
+    }
+
+    @Test
+    public void latencyHistogramTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+
+        for (long i = 1; i <= 100_000; i++)
+            histogram.record(i * 1000);
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(50_000_000, histogram.getPercentile(50), 50_000_000 * 0.035);
+        assertEquals(99_000_000, histogram.getPercentile(99), 99_000_000 * 0.035);
+        assertEquals(99_900_000, histogram.getPercentile(99.9), 99_900_000 * 0.035);
+        assertEquals(100_000_000, histogram.getMax());
+        assertTrue(histogram.getPercentile(100) <= histogram.getMax());
+    }
+
+    @Test
+    public void repositoryMetricsRegistrationTest() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        RepositoryMetrics metrics = new RepositoryMetrics(Integer.class);
+        InstrumentedRepository<Integer> repository = new InstrumentedRepository<>(JCFRepositories.concurrent(), metrics);
+        repository.add(1);
+
+        metrics.register(server);
+        try {
+            assertEquals(1L, server.getAttribute(metrics.objectName(Operation.ADD), "Calls"));
+            try {
+                metrics.register(server);
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+            try {
+                new RepositoryMetrics(Integer.class).register(server);
+                fail();
+            } catch (RepositoryException expected) {
+            }
+            assertTrue(server.isRegistered(metrics.objectName(Operation.ADD)));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(metrics.objectName(Operation.ADD)));
+
+        OperationMetrics add = metrics.get(Operation.ADD);
+        add.reset();
+        assertEquals(0, add.getCalls());
+    }
+}
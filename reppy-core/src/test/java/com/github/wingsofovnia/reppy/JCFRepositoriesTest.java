@@ -1,5 +1,9 @@
 package com.github.wingsofovnia.reppy;
 
+import com.github.wingsofovnia.reppy.api.IntSequenceRepository;
+import com.github.wingsofovnia.reppy.api.LongSequenceRepository;
+import com.github.wingsofovnia.reppy.api.Repository;
+import com.github.wingsofovnia.reppy.api.RepositoryException;
 import com.github.wingsofovnia.reppy.api.SequenceRepository;
 import org.junit.Before;
 import org.junit.Test;
@@ -8,9 +12,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class JCFRepositoriesTest {
 
@@ -37,4 +44,122 @@ public class JCFRepositoriesTest {
             assertEquals(arrayList.get(i), sequenceRepository.get(i).get());
         }
     }
+
+    @Test
+    public void concurrentRepositoryTest() {
+        Repository<Integer> repository = JCFRepositories.concurrent();
+        List<Integer> values = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+
+        repository.addAll(values.parallelStream());
+        assertEquals(values.size(), repository.size());
+        assertTrue(repository.containsAll(values));
+        assertFalse(repository.containsAll(Arrays.asList(1, -1)));
+
+        assertEquals(values.size() / 2, repository.removeAll(values.parallelStream().filter(v -> v % 2 == 0)));
+        assertEquals(values.size() / 2, repository.size());
+        assertFalse(repository.contains(0));
+        assertTrue(repository.contains(1));
+    }
+
+    @Test
+    public void concurrentSequenceRepositoryTest() {
+        SequenceRepository<String, Integer> repository = JCFRepositories.concurrentSequence();
+        List<String> values = IntStream.range(0, 10_000).mapToObj(String::valueOf).collect(Collectors.toList());
+
+        repository.addAll(values.parallelStream());
+        assertEquals(values.size(), repository.size());
+        assertTrue(repository.containsAll(values));
+
+        repository.add("7");
+        assertEquals(2, repository.removeAll(Arrays.asList("7", "7")));
+        assertFalse(repository.contains("7"));
+        assertEquals(values.size() - 1, repository.size());
+
+        int index = values.size() + 1;
+        repository.add("-1");
+        assertEquals("-1", repository.get(index).get());
+        repository.remove(index);
+        assertFalse(repository.get(index).isPresent());
+        assertFalse(repository.contains("-1"));
+    }
+
+    @Test
+    public void concurrentSequenceClearTest() throws InterruptedException {
+        SequenceRepository<String, Integer> repository = JCFRepositories.concurrentSequence();
+        List<String> values = IntStream.range(0, 2_000).mapToObj(i -> String.valueOf(i % 100)).collect(Collectors.toList());
+
+        Thread clearing = new Thread(() -> {
+            for (int i = 0; i < 50; i++)
+                repository.clear();
+        });
+        clearing.start();
+        repository.addAll(values.parallelStream());
+        clearing.join();
+
+        Set<String> stored = repository.getAll().collect(Collectors.toSet());
+        for (int i = 0; i < 100; i++)
+            assertEquals(stored.contains(String.valueOf(i)), repository.contains(String.valueOf(i)));
+
+        assertEquals(repository.size(), repository.removeAll(values));
+        assertTrue(repository.isEmpty());
+        assertFalse(repository.containsAll(Arrays.asList("0")));
+    }
+
+    @Test
+    public void concurrentSequenceExhaustedTest() {
+        SequenceRepository<String, Integer> repository = JCFRepositories.concurrentSequence(Integer.MAX_VALUE - 1);
+        repository.add("a");
+        repository.add("b");
+        try {
+            repository.add("c");
+            fail();
+        } catch (RepositoryException e) {
+            assertFalse(repository.contains("c"));
+        }
+        assertEquals("a", repository.get(Integer.MAX_VALUE - 1).get());
+        assertEquals("b", repository.get(Integer.MAX_VALUE).get());
+        assertEquals(2, repository.size());
+    }
+
+    @Test
+    public void intSequenceRepositoryTest() {
+        IntSequenceRepository<String> repository = JCFRepositories.intSequence();
+        int first = repository.insert("a");
+        int second = repository.insert("b");
+
+        assertEquals("a", repository.getOrNull(first));
+        assertEquals("b", repository.get(second).get());
+        assertNull(repository.getOrNull(-1));
+        assertNull(repository.getOrNull(42));
+
+        assertTrue(repository.remove(first));
+        assertFalse(repository.remove(first));
+        assertFalse(repository.containsIndex(first));
+        assertFalse(repository.contains("a"));
+        assertEquals(1, repository.size());
+
+        assertEquals(first, repository.insert("c"));
+        repository.addAll(IntStream.range(0, 100).mapToObj(String::valueOf).collect(Collectors.toList()));
+        assertEquals(102, repository.size());
+        assertEquals(102, repository.getAll().count());
+
+        repository.clear();
+        assertTrue(repository.isEmpty());
+        assertFalse(repository.iterator().hasNext());
+    }
+
+    @Test
+    public void longSequenceRepositoryTest() {
+        LongSequenceRepository<String> repository = JCFRepositories.longSequence();
+        long first = repository.insert("a");
+        assertEquals("a", repository.getOrNull(first));
+
+        assertTrue(repository.remove(first));
+        long reused = repository.insert("b");
+        assertNotEquals(first, reused);
+        assertEquals((int) first, (int) reused);
+        assertNull(repository.getOrNull(first));
+        assertFalse(repository.remove(first));
+        assertEquals("b", repository.get(reused).get());
+    }
 }
@@ -0,0 +1,118 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.api.SequenceRepository;
+import com.github.wingsofovnia.reppy.codec.Codec;
+import com.github.wingsofovnia.reppy.codec.Codecs;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class RepositorySnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotRoundTripTest() throws Exception {
+        List<String> values = IntStream.range(0, 10_000).mapToObj(i -> "value-" + i).collect(Collectors.toList());
+        SequenceRepository<String, Integer> source = JCFRepositories.from(new ArrayList<>(values));
+
+        for (boolean compressed : new boolean[]{false, true}) {
+            Path file = folder.newFile().toPath();
+            RepositorySnapshot<String> snapshot = new RepositorySnapshot<>(Codecs.utf8());
+            snapshot.setChunkSize(777);
+            snapshot.setCompressed(compressed);
+            snapshot.setParallelism(3);
+
+            assertEquals(values.size(), snapshot.write(source, file));
+
+            List<String> restored = new ArrayList<>();
+            assertEquals(values.size(), snapshot.restore(file, JCFRepositories.from(restored)));
+            assertEquals(values, restored);
+        }
+    }
+
+    @Test(expected = RepositoryException.class)
+    public void snapshotCorruptionTest() throws Exception {
+        Path file = folder.newFile().toPath();
+        RepositorySnapshot<String> snapshot = new RepositorySnapshot<>(Codecs.utf8());
+        snapshot.write(JCFRepositories.from(new ArrayList<>(Arrays.asList("a", "b", "c"))), file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write('x');
+        }
+        snapshot.restore(file, JCFRepositories.from(new ArrayList<>()));
+    }
+
+    @Test
+    public void snapshotCorruptedChunkHeaderTest() throws Exception {
+        RepositorySnapshot<String> snapshot = new RepositorySnapshot<>(Codecs.utf8());
+        // subjects, raw length and stored length of the first chunk
+        int[][] corruptions = {{24, 2}, {28, 1}, {32, -1}, {32, Integer.MAX_VALUE}, {28, Integer.MAX_VALUE}};
+        for (int[] corruption : corruptions) {
+            Path file = folder.newFile().toPath();
+            snapshot.write(JCFRepositories.from(new ArrayList<>(Arrays.asList("a", "b", "c"))), file);
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(corruption[0]);
+                raf.writeInt(corruption[1]);
+            }
+
+            List<String> restored = new ArrayList<>();
+            try {
+                snapshot.restore(file, JCFRepositories.from(restored));
+                fail(Arrays.toString(corruption));
+            } catch (RepositoryException expected) {
+                assertTrue(restored.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void snapshotFailedWriteKeepsPreviousTest() throws Exception {
+        Path file = folder.newFile().toPath();
+        Codec<String> codec = new Codec<String>() {
+            @Override
+            public byte[] encode(String subject) {
+                if (subject.equals("boom"))
+                    throw new RepositoryException("Failed to encode " + subject);
+                return Codecs.utf8().encode(subject);
+            }
+
+            @Override
+            public String decode(ByteBuffer buffer) {
+                return Codecs.utf8().decode(buffer);
+            }
+        };
+        RepositorySnapshot<String> snapshot = new RepositorySnapshot<>(codec);
+        snapshot.setChunkSize(1);
+        snapshot.write(JCFRepositories.from(new ArrayList<>(Arrays.asList("a", "b"))), file);
+
+        try {
+            snapshot.write(JCFRepositories.from(new ArrayList<>(Arrays.asList("c", "d", "boom"))), file);
+            fail();
+        } catch (RepositoryException expected) {
+        }
+
+        List<String> restored = new ArrayList<>();
+        assertEquals(2, snapshot.restore(file, JCFRepositories.from(restored)));
+        assertEquals(Arrays.asList("a", "b"), restored);
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertEquals(1, files.count());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.Repository;
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindRepositoryTest {
+
+    @Test
+    public void writeBehindCoalescingTest() {
+        Set<Integer> set = new HashSet<>();
+        WriteBehindRepository<Integer> repository = new WriteBehindRepository<>(JCFRepositories.from(set), 100);
+
+        repository.add(1);
+        repository.add(2);
+        repository.remove(2);
+        assertEquals(2, repository.getQueueDepth());
+        assertEquals(1, repository.getCancelledCount());
+        assertTrue(set.isEmpty());
+
+        assertTrue(repository.contains(1));
+        assertFalse(repository.contains(2));
+
+        repository.flush();
+        assertEquals(0, repository.getQueueDepth());
+        assertEquals(1, repository.getFlushCount());
+        assertTrue(set.contains(1));
+        assertFalse(set.contains(2));
+
+        repository.remove(1);
+        assertFalse(repository.contains(1));
+        repository.close();
+        assertTrue(set.isEmpty());
+        assertEquals(3, repository.getFlushedCount());
+    }
+
+    @Test
+    public void writeBehindOrderingTest() {
+        Set<Integer> set = new HashSet<>();
+        set.add(1);
+        WriteBehindRepository<Integer> repository = new WriteBehindRepository<>(JCFRepositories.from(set), 100);
+
+        repository.add(1);
+        repository.remove(1);
+        repository.remove(2);
+        repository.add(2);
+        assertFalse(repository.contains(1));
+        assertTrue(repository.contains(2));
+
+        repository.flush();
+        assertFalse("Remove after add must still remove an existing entity", set.contains(1));
+        assertTrue("Add after remove must not cancel out", set.contains(2));
+
+        repository.remove(2);
+        repository.add(2);
+        repository.flush();
+        assertTrue(set.contains(2));
+    }
+
+    @Test
+    public void writeBehindThresholdTest() throws InterruptedException {
+        Set<Integer> set = new HashSet<>();
+        Repository<Integer> delegate = JCFRepositories.from(set);
+
+        WriteBehindRepository<Integer> bySize = new WriteBehindRepository<>(delegate, 10);
+        bySize.addAll(IntStream.range(0, 25).boxed().collect(Collectors.toList()));
+        assertEquals(2, bySize.getFlushCount());
+        assertEquals(5, bySize.getQueueDepth());
+        assertEquals(25, bySize.size());
+        bySize.clear();
+
+        try (WriteBehindRepository<Integer> byTime =
+                     new WriteBehindRepository<>(delegate, 1000, 10, TimeUnit.MILLISECONDS)) {
+            byTime.add(42);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (byTime.getFlushCount() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertTrue(set.contains(42));
+        }
+    }
+
+    @Test
+    public void writeBehindRemoveAllTest() {
+        Set<Integer> set = new HashSet<>();
+        set.add(1);
+        WriteBehindRepository<Integer> repository = new WriteBehindRepository<>(JCFRepositories.from(set), 100);
+
+        repository.add(2);
+        assertEquals(2, repository.removeAll(Arrays.asList(1, 2, 3)));
+        assertEquals(0, repository.getQueueDepth());
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void writeBehindFailedFlushTest() {
+        Set<Integer> set = new HashSet<>();
+        List<List<Integer>> batches = new ArrayList<>();
+        WriteBehindRepository<Integer> repository = new WriteBehindRepository<>(batchWriter(set, batches), 100);
+
+        repository.add(1);
+        repository.add(-1);
+        try {
+            repository.flush();
+            fail();
+        } catch (RepositoryException e) {
+            assertSame(e, repository.getLastFlushError());
+        }
+        assertEquals(1, repository.getFailedFlushCount());
+        assertEquals(2, repository.getQueueDepth());
+        assertTrue("Failed batch must not be applied partially", set.isEmpty());
+
+        repository.remove(-1);
+        repository.flush();
+        assertEquals(0, repository.getQueueDepth());
+        assertEquals(Collections.singleton(1), set);
+        assertEquals(Arrays.asList(Arrays.asList(-1), Arrays.asList(1)), batches);
+    }
+
+    /**
+     * @return repository of the set applying batches of {@link WriteBehindRepository.BatchWriter} atomically
+     */
+    @SuppressWarnings("unchecked")
+    private static Repository<Integer> batchWriter(Set<Integer> set, List<List<Integer>> batches) {
+        Repository<Integer> repository = JCFRepositories.from(set);
+        return (Repository<Integer>) Proxy.newProxyInstance(Repository.class.getClassLoader(),
+                new Class<?>[]{Repository.class, WriteBehindRepository.BatchWriter.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("writeBatch"))
+                        return method.invoke(repository, args);
+
+                    Collection<Integer> removals = (Collection<Integer>) args[0];
+                    Collection<Integer> additions = (Collection<Integer>) args[1];
+                    if (additions.stream().anyMatch(i -> i < 0))
+                        throw new RepositoryException("Negative numbers are not accepted");
+                    set.removeAll(removals);
+                    set.addAll(additions);
+                    batches.add(new ArrayList<>(removals));
+                    batches.add(new ArrayList<>(additions));
+                    return null;
+                });
+    }
+}
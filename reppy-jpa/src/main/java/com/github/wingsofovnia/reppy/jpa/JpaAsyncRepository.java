@@ -0,0 +1,140 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import com.github.wingsofovnia.reppy.api.AsyncRepository;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * {@link AsyncRepository} running operations of a {@link JpaRepository} backed by
+ * {@link javax.persistence.EntityManagerFactory} on an {@link Executor}. Each operation gets its own
+ * short-lived {@link javax.persistence.EntityManager}, so operations may run concurrently.
+ */
+public class JpaAsyncRepository<T> implements AsyncRepository<T> {
+    final JpaRepository<T> repository;
+    final Executor executor;
+
+    public JpaAsyncRepository(EntityManagerFactory entityManagerFactory, Class<T> entityClass) {
+        this(new JpaRepository<>(entityManagerFactory, entityClass), defaultExecutor());
+    }
+
+    public JpaAsyncRepository(EntityManagerFactory entityManagerFactory, Class<T> entityClass, Executor executor) {
+        this(new JpaRepository<>(entityManagerFactory, entityClass), executor);
+    }
+
+    public JpaAsyncRepository(JpaRepository<T> repository, Executor executor) {
+        this.repository = Objects.requireNonNull(repository);
+        this.executor = Objects.requireNonNull(executor);
+
+        if (repository.getEntityManager() != null)
+            throw new IllegalArgumentException("Repository must be backed by EntityManagerFactory to be used concurrently");
+    }
+
+    /**
+     * @return shared virtual-thread-per-task executor when running on a JDK that has virtual threads,
+     * shared cached pool of daemon threads otherwise
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    @Override
+    public CompletableFuture<Void> add(T subject) {
+        return run(repository -> repository.add(subject));
+    }
+
+    @Override
+    public CompletableFuture<Void> addAll(Collection<T> subjects) {
+        return run(repository -> repository.addAll(subjects));
+    }
+
+    @Override
+    public CompletableFuture<Void> remove(T subject) {
+        return run(repository -> repository.remove(subject));
+    }
+
+    @Override
+    public CompletableFuture<Integer> removeAll(Collection<T> subjects) {
+        return supply(repository -> repository.removeAll(subjects));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> contains(T subject) {
+        return supply(repository -> repository.contains(subject));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> containsAll(Collection<T> subjects) {
+        return supply(repository -> repository.containsAll(subjects));
+    }
+
+    @Override
+    public CompletableFuture<Long> size() {
+        return supply(JpaRepository::size);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isEmpty() {
+        return supply(JpaRepository::isEmpty);
+    }
+
+    @Override
+    public CompletableFuture<Void> clear() {
+        return run(JpaRepository::clear);
+    }
+
+    public JpaRepository<T> getRepository() {
+        return repository;
+    }
+
+    <R> CompletableFuture<R> supply(Function<JpaRepository<T>, R> operation) {
+        return CompletableFuture.supplyAsync(() -> operation.apply(repository), executor);
+    }
+
+    CompletableFuture<Void> run(Consumer<JpaRepository<T>> operation) {
+        return supply(repository -> {
+            operation.accept(repository);
+            return null;
+        });
+    }
+
+    private static final class DefaultExecutorHolder {
+        static final Executor EXECUTOR = create();
+
+        private static Executor create() {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                final AtomicInteger counter = new AtomicInteger();
+                return Executors.newCachedThreadPool(task -> {
+                    Thread thread = new Thread(task, "reppy-async-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+    }
+}
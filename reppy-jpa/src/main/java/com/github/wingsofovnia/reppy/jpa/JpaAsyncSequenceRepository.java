@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import com.github.wingsofovnia.reppy.api.AsyncSequenceRepository;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+public class JpaAsyncSequenceRepository<T, ID extends Serializable> extends JpaAsyncRepository<T>
+        implements AsyncSequenceRepository<T, ID> {
+
+    public JpaAsyncSequenceRepository(EntityManagerFactory entityManagerFactory, Class<T> entityClass) {
+        this(new JpaSequenceRepository<>(entityManagerFactory, entityClass), defaultExecutor());
+    }
+
+    public JpaAsyncSequenceRepository(EntityManagerFactory entityManagerFactory, Class<T> entityClass,
+                                      Executor executor) {
+        this(new JpaSequenceRepository<>(entityManagerFactory, entityClass), executor);
+    }
+
+    public JpaAsyncSequenceRepository(JpaSequenceRepository<T, ID> repository, Executor executor) {
+        super(repository, executor);
+    }
+
+    @Override
+    public CompletableFuture<Optional<T>> get(ID index) {
+        return supply(repository -> sequence(repository).get(index));
+    }
+
+    /**
+     * Streams every entity to the action through {@link JpaSequenceRepository#getAll()}, so memory use does
+     * not depend on the size of repository.
+     */
+    @Override
+    public CompletableFuture<Long> forEach(Consumer<? super T> action) {
+        Objects.requireNonNull(action);
+        return supply(repository -> forEach(sequence(repository).getAll(), action));
+    }
+
+    public CompletableFuture<Long> forEach(JpaSpecification<T> specification, Consumer<? super T> action) {
+        Objects.requireNonNull(action);
+        return supply(repository -> forEach(sequence(repository).get(specification), action));
+    }
+
+    /**
+     * @see JpaSequenceRepository#getSlice(JpaSpecification, JpaPageRequest)
+     */
+    public CompletableFuture<JpaSlice<T>> getSlice(JpaSpecification<T> specification, JpaPageRequest request) {
+        return supply(repository -> sequence(repository).getSlice(specification, request));
+    }
+
+    @Override
+    public CompletableFuture<Void> remove(ID index) {
+        return run(repository -> sequence(repository).remove(index));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public JpaSequenceRepository<T, ID> getRepository() {
+        return (JpaSequenceRepository<T, ID>) repository;
+    }
+
+    private static <T> long forEach(Stream<T> stream, Consumer<? super T> action) {
+        try (Stream<T> entities = stream) {
+            long consumed = 0;
+            for (Iterator<T> iterator = entities.iterator(); iterator.hasNext(); consumed++)
+                action.accept(iterator.next());
+            return consumed;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JpaSequenceRepository<T, ID> sequence(JpaRepository<T> repository) {
+        return (JpaSequenceRepository<T, ID>) repository;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Server-side cursors over Hibernate's {@link ScrollableResults}. Rows are fetched from JDBC driver
+ * in chunks of fetch size and every entity is detached from persistence context as soon as the stream
+ * moves past it, so memory use does not depend on the size of result set.
+ * <p>
+ * Drivers such as PostgreSQL's honour fetch size only outside of autocommit, so a cursor over an
+ * {@link EntityManager} of its own runs in a transaction that is rolled back once the cursor is released; it
+ * only reads, so nothing is lost. Cursors over an {@link EntityManager} shared with other operations run in
+ * the transaction active at the time, if any, and have to be wrapped into one for fetch size to take effect.
+ * <p>
+ * Hibernate is an optional dependency of reppy-jpa, so this class must be touched only if
+ * {@link #isSupported(EntityManager)} says so.
+ */
+final class JpaCursors {
+    private static final boolean HIBERNATE_PRESENT = isClassPresent("org.hibernate.Query");
+
+    private JpaCursors() {
+        throw new AssertionError("No instance for you");
+    }
+
+    static boolean isSupported(EntityManager entityManager) {
+        if (!HIBERNATE_PRESENT)
+            return false;
+
+        try {
+            entityManager.unwrap(org.hibernate.Session.class);
+            return true;
+        } catch (PersistenceException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param owned   whether entity manager belongs to the stream alone, so cursor may run in its own transaction
+     * @param release called once cursor has been released, either on stream close or exhaustion, with the amount
+     *                of rows it has returned
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Stream<T> stream(EntityManager entityManager, boolean owned, TypedQuery<T> typedQuery, int fetchSize,
+                                LongConsumer release) {
+        return stream(entityManager, owned, typedQuery, fetchSize, results -> (T) results.get(0), true, release);
+    }
+
+    /**
+     * Streams rows of a query selecting plain values, which are neither read into nor detached from
+     * persistence context.
+     *
+     * @param row maps values of the current row
+     */
+    static <T> Stream<T> stream(EntityManager entityManager, boolean owned, TypedQuery<?> typedQuery, int fetchSize,
+                                Function<Object[], T> row, LongConsumer release) {
+        return stream(entityManager, owned, typedQuery, fetchSize, results -> row.apply(results.get()), false, release);
+    }
+
+    private static <T> Stream<T> stream(EntityManager entityManager, boolean owned, TypedQuery<?> typedQuery,
+                                        int fetchSize, Function<ScrollableResults, T> row, boolean detach,
+                                        LongConsumer release) {
+        Query query = typedQuery.unwrap(Query.class);
+        query.setFetchSize(fetchSize);
+        query.setReadOnly(true);
+
+        final EntityTransaction transaction = entityManager.getTransaction();
+        final boolean transactional = owned && !transaction.isActive();
+        if (transactional)
+            transaction.begin();
+
+        final ScrollableResults results;
+        try {
+            results = query.scroll(ScrollMode.FORWARD_ONLY);
+        } catch (RuntimeException e) {
+            if (transactional && transaction.isActive())
+                transaction.rollback();
+            throw e;
+        }
+
+        final LongConsumer end = !transactional ? release : rows -> {
+            try {
+                if (transaction.isActive())
+                    transaction.rollback();
+            } finally {
+                release.accept(rows);
+            }
+        };
+        Cursor<T> cursor = new Cursor<>(detach ? entityManager : null, results, row, end);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(cursor::release);
+    }
+
+    private static class Cursor<T> implements Iterator<T> {
+        private final EntityManager entityManager;
+        private final ScrollableResults results;
+        private final Function<ScrollableResults, T> row;
+        private final LongConsumer release;
+
+        private T previous;
+        private long rows;
+        private Boolean hasNext;
+        private boolean isReleased;
+
+        /**
+         * @param entityManager to detach returned entities from, or null if rows are not entities
+         */
+        Cursor(EntityManager entityManager, ScrollableResults results, Function<ScrollableResults, T> row,
+               LongConsumer release) {
+            this.entityManager = entityManager;
+            this.results = results;
+            this.row = row;
+            this.release = release;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext != null)
+                return hasNext;
+
+            if (previous != null && entityManager != null && !isReleased) {
+                entityManager.detach(previous);
+                previous = null;
+            }
+
+            hasNext = !isReleased && results.next();
+            if (!hasNext)
+                release();
+
+            return hasNext;
+        }
+
+        void release() {
+            if (isReleased)
+                return;
+
+            isReleased = true;
+            try {
+                results.close();
+            } finally {
+                release.accept(rows);
+            }
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            hasNext = null;
+            rows++;
+            previous = row.apply(results);
+            return previous;
+        }
+    }
+
+    private static boolean isClassPresent(String className) {
+        try {
+            Class.forName(className, false, JpaCursors.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
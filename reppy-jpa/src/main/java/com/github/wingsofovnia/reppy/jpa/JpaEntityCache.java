@@ -0,0 +1,306 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded application-level cache of entities by identifier, placed in front of
+ * {@link JpaSequenceRepository#get(java.io.Serializable)} with
+ * {@link JpaSequenceRepository#setEntityCache(JpaEntityCache)}. Repository invalidates it on its own
+ * modifications, changes made through other repositories or directly in database are seen only after entry
+ * expires. Cached instances are shared between callers and are not necessarily managed by the
+ * {@link javax.persistence.EntityManager} of repository.
+ * <p>
+ * An instance loaded by {@link #get(Object, Function)} is not cached if the cache has been invalidated
+ * while it was loading, or if a transaction of the repository was in flight at any point meanwhile, as
+ * the load may have read a row that the transaction is about to change.
+ */
+public class JpaEntityCache<K, V> {
+    public enum Eviction {
+        /**
+         * Evicts least recently used entry.
+         */
+        LRU,
+        /**
+         * Keeps newcomers in a small LRU window, and admits window victims to the main LRU segment
+         * only if they are used more often than main segment victim, as estimated by a decaying
+         * count-min sketch. Performs better than LRU on skewed access patterns.
+         */
+        W_TINY_LFU
+    }
+
+    private final long maximumSize;
+    private final long timeToLiveNanos;
+    private final Eviction eviction;
+
+    private final LinkedHashMap<K, Entry<V>> window;
+    private final LinkedHashMap<K, Entry<V>> main;
+    private final long windowSize;
+    private final FrequencySketch sketch;
+
+    private long generation;
+    private int writers;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    public JpaEntityCache(long maximumSize, Eviction eviction) {
+        this(maximumSize, 0, TimeUnit.NANOSECONDS, eviction);
+    }
+
+    /**
+     * @param timeToLive how long entry lives after it has been loaded, 0 for no expiration
+     */
+    public JpaEntityCache(long maximumSize, long timeToLive, TimeUnit unit, Eviction eviction) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Maximum size must be positive");
+        if (timeToLive < 0)
+            throw new IllegalArgumentException("Time to live must not be negative");
+
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.eviction = Objects.requireNonNull(eviction);
+
+        this.window = new LinkedHashMap<>(16, 0.75f, true);
+        this.main = new LinkedHashMap<>(16, 0.75f, true);
+        this.windowSize = eviction == Eviction.LRU ? 0 : Math.max(1, maximumSize / 100);
+        this.sketch = eviction == Eviction.LRU ? null : new FrequencySketch(maximumSize);
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        final long token;
+        synchronized (this) {
+            final V cached = getIfPresent(key);
+            if (cached != null)
+                return cached;
+            token = writers == 0 ? generation : -1;
+        }
+
+        final V loaded = loader.apply(key);
+        if (loaded != null && token >= 0)
+            put(key, loaded, token);
+
+        return loaded;
+    }
+
+    private synchronized void put(K key, V value, long token) {
+        if (generation == token)
+            put(key, value);
+    }
+
+    public synchronized V getIfPresent(K key) {
+        if (sketch != null)
+            sketch.increment(key);
+
+        Entry<V> entry = window.get(key);
+        if (entry == null)
+            entry = main.get(key);
+
+        if (entry != null && entry.isExpired()) {
+            invalidate(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+
+        hitCount.increment();
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        final Entry<V> entry = new Entry<>(value, timeToLiveNanos == 0 ? 0 : System.nanoTime() + timeToLiveNanos);
+        if (window.containsKey(key)) {
+            window.put(key, entry);
+            return;
+        }
+        if (main.containsKey(key) || eviction == Eviction.LRU) {
+            main.put(key, entry);
+            if (main.size() > maximumSize)
+                evictEldest(main);
+            return;
+        }
+
+        window.put(key, entry);
+        if (window.size() <= windowSize)
+            return;
+
+        final Map.Entry<K, Entry<V>> candidate = evictEldest(window);
+        if (main.size() < maximumSize - windowSize) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        if (main.isEmpty()) {
+            evictionCount.increment();
+            return;
+        }
+
+        final K victim = main.keySet().iterator().next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+            main.remove(victim);
+            main.put(candidate.getKey(), candidate.getValue());
+        }
+        evictionCount.increment();
+    }
+
+    public synchronized void invalidate(Object key) {
+        generation++;
+        if (window.remove(key) == null)
+            main.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        window.clear();
+        main.clear();
+    }
+
+    /**
+     * Marks start of a transaction that may change cached entities, loads completing until matching
+     * {@link #endWrite()} are not cached.
+     */
+    synchronized void beginWrite() {
+        generation++;
+        writers++;
+    }
+
+    synchronized void endWrite() {
+        generation++;
+        writers--;
+    }
+
+    public synchronized long size() {
+        return window.size() + main.size();
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public double getHitRate() {
+        final long hits = getHitCount();
+        final long requests = hits + getMissCount();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    private Map.Entry<K, Entry<V>> evictEldest(LinkedHashMap<K, Entry<V>> segment) {
+        final Iterator<Map.Entry<K, Entry<V>>> iterator = segment.entrySet().iterator();
+        final Map.Entry<K, Entry<V>> eldest = iterator.next();
+        iterator.remove();
+
+        if (segment == main)
+            evictionCount.increment();
+        return eldest;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return expiresAt != 0 && System.nanoTime() - expiresAt > 0;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 rows with 4-bit saturating counters. Counters are halved every
+     * 10 * maximumSize increments, so estimates follow recent popularity.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xb0fc8c5f, 0x7e7e2bbd, 0x2ec9e4a3};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[] table;
+        private final int width;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long maximumSize) {
+            this.width = Integer.highestOneBit((int) Math.min(Math.max(maximumSize, 16), 1 << 24) * 2 - 1);
+            this.table = new byte[SEEDS.length * width];
+            this.sampleSize = (int) Math.min(10 * maximumSize, Integer.MAX_VALUE);
+        }
+
+        void increment(Object key) {
+            final int hash = spread(key.hashCode());
+            for (int row = 0; row < SEEDS.length; row++) {
+                final int index = index(hash, row);
+                if (table[index] < MAX_COUNT)
+                    table[index]++;
+            }
+
+            if (++additions >= sampleSize)
+                reset();
+        }
+
+        int frequency(Object key) {
+            final int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < SEEDS.length; row++)
+                frequency = Math.min(frequency, table[index(hash, row)]);
+            return frequency;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++)
+                table[i] >>>= 1;
+            additions /= 2;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 16;
+            return row * width + (h & (width - 1));
+        }
+
+        private static int spread(int hash) {
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            return (hash >>> 16) ^ hash;
+        }
+    }
+}
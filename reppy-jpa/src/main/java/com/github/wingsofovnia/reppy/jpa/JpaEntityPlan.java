@@ -0,0 +1,176 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Metamodel facts about an entity class that repositories need on every call: its BASIC attributes with
+ * precompiled getters and its single id attribute. The same class may be mapped differently by different
+ * persistence units, so a plan describes the class as seen by a single metamodel and is held by repositories
+ * built over it rather than shared globally.
+ */
+final class JpaEntityPlan<T> {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final Class<T> entityClass;
+    private final List<String> attributes;
+    private final List<Class<?>> attributeTypes;
+    private final MethodHandle[] getters;
+    private final String idAttribute;
+    private final Class<?> idType;
+    private final int idIndex;
+
+    private JpaEntityPlan(Class<T> entityClass, EntityType<T> entityType) {
+        this.entityClass = entityClass;
+
+        final List<String> attributes = new ArrayList<>();
+        final List<Class<?>> attributeTypes = new ArrayList<>();
+        final List<MethodHandle> getters = new ArrayList<>();
+        for (SingularAttribute<? super T, ?> attr : entityType.getSingularAttributes()) {
+            if (attr.getPersistentAttributeType() != PersistentAttributeType.BASIC)
+                continue;
+
+            attributes.add(attr.getName());
+            attributeTypes.add(wrap(attr.getJavaType()));
+            getters.add(getter(attr.getJavaMember()));
+        }
+        this.attributes = Collections.unmodifiableList(attributes);
+        this.attributeTypes = Collections.unmodifiableList(attributeTypes);
+        this.getters = getters.toArray(new MethodHandle[getters.size()]);
+
+        final Optional<SingularAttribute<? super T, ?>> id = !entityType.hasSingleIdAttribute() ? Optional.empty() :
+                entityType.getSingularAttributes().stream().filter(SingularAttribute::isId).findFirst();
+        this.idAttribute = id.map(SingularAttribute::getName).orElse(null);
+        this.idType = id.map(attr -> wrap(attr.getJavaType())).orElse(null);
+        this.idIndex = idAttribute == null ? -1 : attributes.indexOf(idAttribute);
+    }
+
+    static <T> JpaEntityPlan<T> of(Metamodel metamodel, Class<T> entityClass) {
+        return new JpaEntityPlan<>(entityClass, metamodel.entity(entityClass));
+    }
+
+    Class<T> entityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return names of BASIC attributes, including id if it is BASIC
+     */
+    List<String> attributes() {
+        return attributes;
+    }
+
+    Class<?> attributeType(int attribute) {
+        return attributeTypes.get(attribute);
+    }
+
+    Object value(int attribute, T subject) {
+        try {
+            return (Object) getters[attribute].invokeExact((Object) subject);
+        } catch (Throwable e) {
+            throw new RepositoryException("Failed to read " + attributes.get(attribute) + " of " + subject, e);
+        }
+    }
+
+    Object[] values(T subject) {
+        final Object[] values = new Object[getters.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = value(i, subject);
+        return values;
+    }
+
+    /**
+     * @return name of the single id attribute, if entity has one
+     */
+    Optional<String> idAttribute() {
+        return Optional.ofNullable(idAttribute);
+    }
+
+    /**
+     * @return name of the single id attribute, if entity has one and its values can be ordered
+     */
+    Optional<String> comparableIdAttribute() {
+        return idAttribute().filter(id -> Comparable.class.isAssignableFrom(idType));
+    }
+
+    /**
+     * @return name of the single id attribute, if entity has one and it is an integral number
+     */
+    Optional<String> integralIdAttribute() {
+        return idAttribute().filter(id -> idType == Long.class || idType == Integer.class
+                || idType == Short.class || idType == Byte.class);
+    }
+
+    /**
+     * Converts number to the type of integral id.
+     *
+     * @see #integralIdAttribute()
+     */
+    Number integralId(long value) {
+        if (idType == Integer.class)
+            return (int) value;
+        if (idType == Short.class)
+            return (short) value;
+        if (idType == Byte.class)
+            return (byte) value;
+        return value;
+    }
+
+    /**
+     * @return position of id in {@link #attributes()} or -1 if id is not a single BASIC attribute
+     */
+    int idIndex() {
+        return idIndex;
+    }
+
+    private static MethodHandle getter(Member member) {
+        try {
+            ((AccessibleObject) member).setAccessible(true);
+
+            final MethodHandle handle;
+            if (member instanceof Field)
+                handle = MethodHandles.lookup().unreflectGetter((Field) member);
+            else
+                handle = MethodHandles.lookup().unreflect((Method) member);
+
+            return handle.asType(GETTER_TYPE);
+        } catch (IllegalAccessException | ClassCastException e) {
+            throw new RepositoryException("Failed to access attribute " + member, e);
+        }
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import java.util.List;
+
+/**
+ * {@link JpaSlice} along with the total amount of matching results.
+ */
+public class JpaPage<T> extends JpaSlice<T> {
+    private final long totalElements;
+
+    JpaPage(List<T> content, JpaPageRequest request, boolean hasNext, String continuationToken, long totalElements) {
+        super(content, request, hasNext, continuationToken);
+        this.totalElements = totalElements;
+    }
+
+    public long getTotalElements() {
+        return totalElements;
+    }
+
+    public long getTotalPages() {
+        final int size = getRequest().getSize();
+        return (totalElements + size - 1) / size;
+    }
+}
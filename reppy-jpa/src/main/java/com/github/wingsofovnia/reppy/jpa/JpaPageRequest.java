@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Requests a page of query results either by offset ({@link #of(int, int, JpaSort)}), or by keyset
+ * ({@link #first(int, JpaSort)} and {@link #after(String, int, JpaSort)}). Keyset requests continue right
+ * after the last row of the previous page, identified by the opaque continuation token of its slice, so every
+ * page costs the same regardless of how deep it is. Keyset requests are ordered by id after the sort
+ * attributes, which have to be strings, characters, numbers, booleans, enums, dates or UUIDs mapped as not
+ * nullable, otherwise the request is rejected before any query runs.
+ */
+public final class JpaPageRequest {
+    private static final char LENGTH_SEPARATOR = ':';
+
+    private final int page;
+    private final int size;
+    private final JpaSort sort;
+    private final boolean keyset;
+    private final String continuationToken;
+
+    private JpaPageRequest(int page, int size, JpaSort sort, boolean keyset, String continuationToken) {
+        if (page < 0)
+            throw new IllegalArgumentException("Page must not be negative");
+        if (size <= 0)
+            throw new IllegalArgumentException("Page size must be positive");
+        if ((long) page * size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Offset of page " + page + " of " + size + " exceeds " + Integer.MAX_VALUE);
+        this.page = page;
+        this.size = size;
+        this.sort = Objects.requireNonNull(sort, "Sort must not be null, use JpaSort.unsorted()");
+        this.keyset = keyset;
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * @param page zero-based page number, skipped rows are still read by database, so the offset of the page
+     *             must not exceed {@link Integer#MAX_VALUE} rows
+     */
+    public static JpaPageRequest of(int page, int size, JpaSort sort) {
+        return new JpaPageRequest(page, size, sort, false, null);
+    }
+
+    public static JpaPageRequest first(int size, JpaSort sort) {
+        return new JpaPageRequest(0, size, sort, true, null);
+    }
+
+    /**
+     * @param continuationToken token of the previous slice retrieved with the same sort
+     */
+    public static JpaPageRequest after(String continuationToken, int size, JpaSort sort) {
+        Objects.requireNonNull(continuationToken, "Continuation token must not be null");
+        return new JpaPageRequest(0, size, sort, true, continuationToken);
+    }
+
+    JpaPageRequest next(String continuationToken) {
+        return keyset ? after(continuationToken, size, sort) : of(page + 1, size, sort);
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getOffset() {
+        return (long) page * size;
+    }
+
+    public JpaSort getSort() {
+        return sort;
+    }
+
+    public boolean isKeyset() {
+        return keyset;
+    }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * Every part of the token, the sort first and then the values, is prefixed with its length, so values may
+     * contain any character.
+     *
+     * @param types java types of keyset attributes
+     * @return token of the row having the values of keyset attributes ordered as in the sort
+     */
+    static String token(List<JpaSort.Order> orders, Object[] values, List<Class<?>> types) {
+        final StringBuilder token = new StringBuilder();
+        append(token, orders.toString());
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null)
+                throw new IllegalStateException("Keyset attribute " + orders.get(i).getAttribute() + " is null");
+            append(token, format(values[i], types.get(i)));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void append(StringBuilder token, String part) {
+        token.append(part.length()).append(LENGTH_SEPARATOR).append(part);
+    }
+
+    /**
+     * @param types java types of keyset attributes
+     * @return values of keyset attributes the token was created from
+     */
+    static Object[] values(String token, List<JpaSort.Order> orders, List<Class<?>> types) {
+        final List<String> parts;
+        try {
+            parts = split(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed continuation token", e);
+        }
+        if (parts.size() != orders.size() + 1 || !parts.get(0).equals(orders.toString()))
+            throw new IllegalArgumentException("Continuation token does not match sort " + orders);
+
+        final Object[] values = new Object[orders.size()];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = parse(parts.get(i + 1), types.get(i));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed continuation token", e);
+            }
+        }
+        return values;
+    }
+
+    private static List<String> split(String token) {
+        final List<String> parts = new ArrayList<>();
+        int position = 0;
+        while (position < token.length()) {
+            final int separator = token.indexOf(LENGTH_SEPARATOR, position);
+            if (separator < 0)
+                throw new IllegalArgumentException("Missing length of part at " + position);
+
+            final int length = Integer.parseInt(token.substring(position, separator));
+            if (length < 0 || length > token.length() - separator - 1)
+                throw new IllegalArgumentException("Invalid length of part at " + position);
+
+            position = separator + 1 + length;
+            parts.add(token.substring(separator + 1, position));
+        }
+        return parts;
+    }
+
+    /**
+     * Formats dates and timestamps as epoch millis, followed by nanos of a {@link Timestamp}, which providers
+     * return even for {@link Date} attributes, so sub-millisecond precision is kept regardless of time zone.
+     */
+    private static String format(Object value, Class<?> type) {
+        if (value instanceof Timestamp && (type == Date.class || type == Timestamp.class))
+            return ((Timestamp) value).getTime() + "." + ((Timestamp) value).getNanos();
+        if (type == Date.class)
+            return String.valueOf(((Date) value).getTime());
+        if (value instanceof Enum)
+            return ((Enum<?>) value).name();
+        return value.toString();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object parse(String value, Class<?> type) {
+        if (type == String.class)
+            return value;
+        if (type == Integer.class || type == int.class)
+            return Integer.valueOf(value);
+        if (type == Long.class || type == long.class)
+            return Long.valueOf(value);
+        if (type == Short.class || type == short.class)
+            return Short.valueOf(value);
+        if (type == Byte.class || type == byte.class)
+            return Byte.valueOf(value);
+        if (type == Double.class || type == double.class)
+            return Double.valueOf(value);
+        if (type == Float.class || type == float.class)
+            return Float.valueOf(value);
+        if (type == Boolean.class || type == boolean.class)
+            return Boolean.valueOf(value);
+        if (type == Character.class || type == char.class)
+            return value.charAt(0);
+        if (type == BigDecimal.class)
+            return new BigDecimal(value);
+        if (type == BigInteger.class)
+            return new BigInteger(value);
+        if (type == UUID.class)
+            return UUID.fromString(value);
+        if (type == Timestamp.class || type == Date.class && value.indexOf('.') >= 0)
+            return timestamp(value);
+        if (type == java.sql.Date.class)
+            return java.sql.Date.valueOf(value);
+        if (type == Time.class)
+            return Time.valueOf(value);
+        if (type == Date.class)
+            return new Date(Long.parseLong(value));
+        if (type.isEnum())
+            return Enum.valueOf((Class<Enum>) type, value);
+        throw new IllegalArgumentException("Keyset attributes of " + type.getName() + " are not supported");
+    }
+
+    private static Timestamp timestamp(String value) {
+        final int separator = value.indexOf('.');
+        if (separator < 0)
+            return new Timestamp(Long.parseLong(value));
+
+        final Timestamp timestamp = new Timestamp(Long.parseLong(value.substring(0, separator)));
+        timestamp.setNanos(Integer.parseInt(value.substring(separator + 1)));
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return keyset ? "keyset " + size + " by " + sort + " after " + continuationToken
+                : "page " + page + " of " + size + " by " + sort;
+    }
+}
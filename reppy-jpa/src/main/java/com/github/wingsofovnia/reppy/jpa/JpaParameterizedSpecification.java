@@ -0,0 +1,184 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Specification whose structure ({@link #shape()}) is known apart from its values ({@link #arguments()}).
+ * Specifications of the same shape compile into the same {@link Compiled} query, with values passed as
+ * parameters on execution, so the query does not need to be rebuilt and re-parsed for every new value.
+ * {@link JpaSpecifications} produce such specifications, and {@code and/or/not} keep them parameterized.
+ */
+final class JpaParameterizedSpecification<T> implements JpaSpecification<T> {
+    private final String shape;
+    private final List<Object> arguments;
+    private final JpaSpecification<T> literal;
+    private final Template<T> template;
+
+    private JpaParameterizedSpecification(String shape, List<Object> arguments,
+                                          JpaSpecification<T> literal, Template<T> template) {
+        this.shape = shape;
+        this.arguments = arguments;
+        this.literal = literal;
+        this.template = template;
+    }
+
+    /**
+     * @param literal  specification with values inlined, used when it is not compiled
+     * @param template the same specification taking values from {@link Parameters} in order of {@code values}
+     */
+    static <T> JpaSpecification<T> of(String operator, String key, JpaSpecification<T> literal,
+                                      Template<T> template, Object... values) {
+        final StringBuilder shape = new StringBuilder(operator).append('(').append(key);
+        for (Object value : values) {
+            if (value == null)
+                return literal;
+            shape.append(',').append(value instanceof Collection ? Collection.class.getName() : value.getClass().getName());
+        }
+
+        final List<Object> arguments = new ArrayList<>(values.length);
+        Collections.addAll(arguments, values);
+        return new JpaParameterizedSpecification<>(shape.append(')').toString(), arguments, literal, template);
+    }
+
+    static boolean isParameterized(JpaSpecification<?>... specifications) {
+        for (JpaSpecification<?> specification : specifications)
+            if (!(specification instanceof JpaParameterizedSpecification))
+                return false;
+        return true;
+    }
+
+    static <T> JpaSpecification<T> and(JpaSpecification<T> left, JpaSpecification<T> right) {
+        return compose("and", left, right, CriteriaBuilder::and);
+    }
+
+    static <T> JpaSpecification<T> or(JpaSpecification<T> left, JpaSpecification<T> right) {
+        return compose("or", left, right, CriteriaBuilder::or);
+    }
+
+    static <T> JpaSpecification<T> not(JpaSpecification<T> specification) {
+        final JpaParameterizedSpecification<T> spec = (JpaParameterizedSpecification<T>) specification;
+        return new JpaParameterizedSpecification<>("not(" + spec.shape + ")", spec.arguments,
+                (root, query, cb) -> cb.not(spec.literal.toPredicate(root, query, cb)),
+                (root, cb, parameters) -> cb.not(spec.template.toPredicate(root, cb, parameters)));
+    }
+
+    private static <T> JpaSpecification<T> compose(String operator, JpaSpecification<T> left, JpaSpecification<T> right,
+                                                   Junction junction) {
+        final JpaParameterizedSpecification<T> l = (JpaParameterizedSpecification<T>) left;
+        final JpaParameterizedSpecification<T> r = (JpaParameterizedSpecification<T>) right;
+
+        final List<Object> arguments = new ArrayList<>(l.arguments.size() + r.arguments.size());
+        arguments.addAll(l.arguments);
+        arguments.addAll(r.arguments);
+
+        return new JpaParameterizedSpecification<>(operator + "(" + l.shape + "," + r.shape + ")", arguments,
+                (root, query, cb) -> junction.apply(cb, l.literal.toPredicate(root, query, cb),
+                        r.literal.toPredicate(root, query, cb)),
+                (root, cb, parameters) -> junction.apply(cb, l.template.toPredicate(root, cb, parameters),
+                        r.template.toPredicate(root, cb, parameters)));
+    }
+
+    @Override
+    public Predicate toPredicate(Root<T> root, CriteriaQuery query, CriteriaBuilder cb) {
+        return literal.toPredicate(root, query, cb);
+    }
+
+    String shape() {
+        return shape;
+    }
+
+    List<Object> arguments() {
+        return arguments;
+    }
+
+    Compiled<T> compile(CriteriaBuilder cb, Class<T> entityClass) {
+        final CriteriaQuery<T> criteriaQuery = cb.createQuery(entityClass);
+        final Root<T> root = criteriaQuery.from(entityClass);
+        final List<ParameterExpression<?>> parameters = new ArrayList<>(arguments.size());
+
+        final Predicate predicate = template.toPredicate(root, cb, new Parameters() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <Y> Expression<Y> value(Y value) {
+                return register(cb.parameter((Class<Y>) value.getClass()));
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Expression<Collection<?>> collection(Collection<?> values) {
+                return register(cb.parameter((Class<Collection<?>>) (Class<?>) Collection.class));
+            }
+
+            private <Y> ParameterExpression<Y> register(ParameterExpression<Y> parameter) {
+                parameters.add(parameter);
+                return parameter;
+            }
+        });
+
+        criteriaQuery.select(root).where(predicate);
+        return new Compiled<>(criteriaQuery, parameters);
+    }
+
+    /**
+     * Criteria query of some specification shape with values replaced by parameters.
+     */
+    static final class Compiled<T> {
+        private final CriteriaQuery<T> criteriaQuery;
+        private final List<ParameterExpression<?>> parameters;
+
+        private Compiled(CriteriaQuery<T> criteriaQuery, List<ParameterExpression<?>> parameters) {
+            this.criteriaQuery = criteriaQuery;
+            this.parameters = parameters;
+        }
+
+        @SuppressWarnings("unchecked")
+        TypedQuery<T> bind(EntityManager entityManager, JpaParameterizedSpecification<T> specification) {
+            final TypedQuery<T> query = entityManager.createQuery(criteriaQuery);
+            for (int i = 0; i < parameters.size(); i++)
+                query.setParameter((ParameterExpression<Object>) parameters.get(i), specification.arguments.get(i));
+            return query;
+        }
+    }
+
+    @FunctionalInterface
+    interface Template<T> {
+        Predicate toPredicate(Root<T> root, CriteriaBuilder cb, Parameters parameters);
+    }
+
+    /**
+     * Hands out expressions for specification values in order they were given to
+     * {@link #of(String, String, JpaSpecification, Template, Object...)}.
+     */
+    interface Parameters {
+        <Y> Expression<Y> value(Y value);
+
+        Expression<Collection<?>> collection(Collection<?> values);
+    }
+
+    @FunctionalInterface
+    private interface Junction {
+        Predicate apply(CriteriaBuilder cb, Predicate left, Predicate right);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.metadata.ClassMetadata;
+
+import javax.persistence.EntityManager;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Inspects Hibernate's persistence context without loading anything from database, which
+ * {@link EntityManager#getReference(Class, Object)} does whenever Hibernate cannot create a proxy.
+ * <p>
+ * Hibernate is an optional dependency of reppy-jpa, so this class must be touched only if
+ * {@link JpaCursors#isSupported(EntityManager)} says so.
+ */
+final class JpaPersistenceContext {
+
+    private JpaPersistenceContext() {
+        throw new AssertionError("No instance for you");
+    }
+
+    /**
+     * @return ids of entities of the class managed by the entity manager
+     */
+    static Set<Object> managedIds(EntityManager entityManager, Class<?> entityClass) {
+        final Session session = entityManager.unwrap(Session.class);
+        final ClassMetadata metadata = session.getSessionFactory().getClassMetadata(entityClass);
+        final Set<Object> ids = new HashSet<>();
+        if (metadata == null)
+            return ids;
+
+        for (Object key : session.getStatistics().getEntityKeys()) {
+            final EntityKey entityKey = (EntityKey) key;
+            if (entityKey.getEntityName().equals(metadata.getEntityName()))
+                ids.add(entityKey.getIdentifier());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.beans.Introspector;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Selects attributes of an entity as rows of plain values and maps rows into {@link Tuple}s, instances of a
+ * class through its constructor, or proxies of an interface whose getters are named after the attributes.
+ * Selected values are neither entities nor managed, so persistence context is not involved at all.
+ */
+final class JpaProjection<P> {
+    private final List<String> attributes;
+    private final Class<P> type;
+
+    private JpaProjection(Class<P> type, List<String> attributes) {
+        if (attributes.isEmpty())
+            throw new IllegalArgumentException("Projection of " + type.getName() + " selects no attributes");
+        this.type = type;
+        this.attributes = attributes;
+    }
+
+    static JpaProjection<Tuple> tuple(String... attributes) {
+        return new JpaProjection<>(Tuple.class, Arrays.asList(attributes));
+    }
+
+    /**
+     * @param attributes attributes passed to the constructor of a class, for interfaces they default to
+     *                   properties of its getters
+     */
+    static <P> JpaProjection<P> of(Class<P> type, String... attributes) {
+        if (type.isInterface() && attributes.length == 0)
+            return new JpaProjection<>(type, properties(type));
+        return new JpaProjection<>(type, Arrays.asList(attributes));
+    }
+
+    /**
+     * @return query selecting the attributes, nested ones referenced with dots, as {@code Object[]} rows
+     */
+    <T> CriteriaQuery<Object[]> query(CriteriaBuilder cb, Class<T> entityClass, JpaSpecification<T> specification) {
+        final CriteriaQuery<Object[]> query = cb.createQuery(Object[].class);
+        final Root<T> root = query.from(entityClass);
+
+        final List<Selection<?>> selections = new ArrayList<>(attributes.size());
+        for (String attribute : attributes)
+            selections.add(path(root, attribute));
+        query.multiselect(selections);
+
+        if (specification != null)
+            query.where(specification.toPredicate(root, query, cb));
+        return query;
+    }
+
+    /**
+     * @return mapper of rows selected by the query built with {@link #query}
+     */
+    Function<Object[], P> mapper(CriteriaQuery<Object[]> query) {
+        final List<Class<?>> types = new ArrayList<>(attributes.size());
+        for (Selection<?> selection : query.getSelection().getCompoundSelectionItems())
+            types.add(selection.getJavaType());
+        return mapper(types);
+    }
+
+    /**
+     * Hibernate hands {@code Object[]} selections to cursors as a single column holding the row, which is
+     * unwrapped before mapping.
+     */
+    private Function<Object[], P> mapper(List<Class<?>> types) {
+        final Function<Object[], P> mapper = rowMapper(types);
+        final int columns = attributes.size();
+        return row -> mapper.apply(row.length == 1 && row[0] instanceof Object[] && ((Object[]) row[0]).length == columns
+                ? (Object[]) row[0] : row);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Function<Object[], P> rowMapper(List<Class<?>> types) {
+        if (type == Tuple.class) {
+            final List<TupleElement<?>> elements = new ArrayList<>(attributes.size());
+            for (int i = 0; i < attributes.size(); i++)
+                elements.add(new Element<>(attributes.get(i), types.get(i)));
+            return row -> (P) new JpaTuple(elements, row);
+        }
+
+        if (type.isInterface()) {
+            final Map<String, Integer> indexes = new HashMap<>();
+            for (int i = 0; i < attributes.size(); i++)
+                indexes.put(attributes.get(i), i);
+            final ClassLoader classLoader = type.getClassLoader();
+            return row -> (P) Proxy.newProxyInstance(classLoader, new Class<?>[]{type}, new Handler(type, indexes, row));
+        }
+
+        final Constructor<P> constructor = constructor(types);
+        return row -> {
+            try {
+                return constructor.newInstance(row);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Failed to construct " + type.getName(), e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to construct " + type.getName(), e);
+            }
+        };
+    }
+
+    static Path<?> path(Root<?> root, String attribute) {
+        Path<?> path = root;
+        for (String name : attribute.split("\\."))
+            path = path.get(name);
+        return path;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Constructor<P> constructor(List<Class<?>> types) {
+        if (Modifier.isAbstract(type.getModifiers()))
+            throw new IllegalArgumentException("Cannot instantiate projection " + type.getName());
+
+        candidates:
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            final Class<?>[] parameters = constructor.getParameterTypes();
+            if (parameters.length != types.size())
+                continue;
+            for (int i = 0; i < parameters.length; i++)
+                if (!wrap(parameters[i]).isAssignableFrom(wrap(types.get(i))))
+                    continue candidates;
+
+            constructor.setAccessible(true);
+            return (Constructor<P>) constructor;
+        }
+        throw new IllegalArgumentException("No constructor of " + type.getName() + " accepts " + attributes + " of " + types);
+    }
+
+    private static List<String> properties(Class<?> type) {
+        final SortedSet<String> properties = new TreeSet<>();
+        for (Method method : type.getMethods()) {
+            final String property = property(method);
+            if (property != null && !method.isDefault() && !Modifier.isStatic(method.getModifiers()))
+                properties.add(property);
+        }
+        return new ArrayList<>(properties);
+    }
+
+    private static String property(Method method) {
+        if (method.getParameterCount() != 0 || method.getReturnType() == void.class)
+            return null;
+
+        final String name = method.getName();
+        if (name.startsWith("get") && name.length() > 3)
+            return Introspector.decapitalize(name.substring(3));
+        if (name.startsWith("is") && name.length() > 2 && wrap(method.getReturnType()) == Boolean.class)
+            return Introspector.decapitalize(name.substring(2));
+        return null;
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+
+    private static class Handler implements InvocationHandler {
+        private final Class<?> type;
+        private final Map<String, Integer> indexes;
+        private final Object[] row;
+
+        Handler(Class<?> type, Map<String, Integer> indexes, Object[] row) {
+            this.type = type;
+            this.indexes = indexes;
+            this.row = row;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        final Object other = args[0];
+                        return other != null && Proxy.isProxyClass(other.getClass())
+                                && Proxy.getInvocationHandler(other) instanceof Handler
+                                && ((Handler) Proxy.getInvocationHandler(other)).type == type
+                                && Arrays.equals(((Handler) Proxy.getInvocationHandler(other)).row, row);
+                    }
+                    break;
+                case "hashCode":
+                    if (method.getParameterCount() == 0)
+                        return Arrays.hashCode(row);
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0)
+                        return type.getSimpleName() + Arrays.toString(row);
+                    break;
+            }
+
+            final String property = property(method);
+            final Integer index = property != null ? indexes.get(property) : null;
+            if (index == null)
+                throw new UnsupportedOperationException(method.getName() + " is not a projected attribute of "
+                        + type.getName());
+
+            final Object value = row[index];
+            if (value == null && method.getReturnType().isPrimitive())
+                throw new NullPointerException("Attribute " + property + " is null");
+            return value;
+        }
+    }
+
+    private static class Element<X> implements TupleElement<X> {
+        private final String alias;
+        private final Class<X> javaType;
+
+        @SuppressWarnings("unchecked")
+        Element(String alias, Class<?> javaType) {
+            this.alias = alias;
+            this.javaType = (Class<X>) wrap(javaType);
+        }
+
+        @Override
+        public Class<? extends X> getJavaType() {
+            return javaType;
+        }
+
+        @Override
+        public String getAlias() {
+            return alias;
+        }
+    }
+
+    private static class JpaTuple implements Tuple {
+        private final List<TupleElement<?>> elements;
+        private final Object[] row;
+
+        JpaTuple(List<TupleElement<?>> elements, Object[] row) {
+            this.elements = elements;
+            this.row = row;
+        }
+
+        @Override
+        public <X> X get(TupleElement<X> tupleElement) {
+            final int index = elements.indexOf(tupleElement);
+            if (index < 0)
+                throw new IllegalArgumentException("Unknown tuple element " + tupleElement.getAlias());
+            return tupleElement.getJavaType().cast(row[index]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <X> X get(String alias, Class<X> type) {
+            return (X) wrap(type).cast(get(alias));
+        }
+
+        @Override
+        public Object get(String alias) {
+            for (int i = 0; i < elements.size(); i++)
+                if (elements.get(i).getAlias().equals(alias))
+                    return row[i];
+            throw new IllegalArgumentException("Unknown tuple alias " + alias);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <X> X get(int i, Class<X> type) {
+            return (X) wrap(type).cast(get(i));
+        }
+
+        @Override
+        public Object get(int i) {
+            if (i < 0 || i >= row.length)
+                throw new IllegalArgumentException("Tuple index " + i + " is out of bounds");
+            return row[i];
+        }
+
+        @Override
+        public Object[] toArray() {
+            return row.clone();
+        }
+
+        @Override
+        public List<TupleElement<?>> getElements() {
+            return elements;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(row);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator of {@link JpaRepository} that splits entities with integral ids into halves of [min(id), max(id)]
+ * range. Split parts read their range with keyset pagination through a private {@link EntityManager},
+ * which is closed once the range is exhausted or fails to be read, so they can be traversed from different
+ * threads. {@link #close()} releases whatever the spliterator and parts split from it still hold.
+ */
+class JpaRangeSpliterator<T> implements Spliterator<T> {
+    private final JpaRepository<T> repository;
+    private final String idAttribute;
+    private final long expectedModificationStamp;
+    private final Queue<JpaRepository.CloseableIterator<T>> iterators;
+
+    private Long lowest;
+    private Long highest;
+    private long estimatedSize;
+    private boolean isSplit;
+    private Iterator<T> iterator;
+
+    JpaRangeSpliterator(JpaRepository<T> repository) {
+        this.repository = repository;
+        this.idAttribute = repository.plan().integralIdAttribute().orElse(null);
+        this.expectedModificationStamp = repository.isFailFast() ? repository.modificationStamp() : -1;
+        this.iterators = new ConcurrentLinkedQueue<>();
+        this.estimatedSize = -1;
+    }
+
+    private JpaRangeSpliterator(JpaRangeSpliterator<T> parent, long lowest, long highest, long estimatedSize) {
+        this.repository = parent.repository;
+        this.idAttribute = parent.idAttribute;
+        this.expectedModificationStamp = parent.expectedModificationStamp;
+        this.iterators = parent.iterators;
+        this.lowest = lowest;
+        this.highest = highest;
+        this.estimatedSize = estimatedSize;
+        this.isSplit = true;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (iterator == null) {
+            final JpaRepository.CloseableIterator<T> opened = isSplit ? new RangeIterator() : repository.iterator(null);
+            iterators.add(opened);
+            iterator = opened;
+        }
+        if (expectedModificationStamp >= 0 && repository.modificationStamp() != expectedModificationStamp)
+            throw new ConcurrentModificationException();
+
+        if (!iterator.hasNext())
+            return false;
+
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (idAttribute == null || iterator != null || estimateSize() < 2L * repository.getPageSize())
+            return null;
+        if (lowest == null && !resolveRange())
+            return null;
+        if (highest - lowest < 2L * repository.getPageSize())
+            return null;
+
+        final long middle = lowest + (highest - lowest) / 2;
+        final JpaRangeSpliterator<T> prefix = new JpaRangeSpliterator<>(this, lowest, middle, estimatedSize / 2);
+
+        this.lowest = middle + 1;
+        this.estimatedSize -= prefix.estimatedSize;
+        this.isSplit = true;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        if (estimatedSize < 0)
+            estimatedSize = repository.estimatedSize();
+        return estimatedSize;
+    }
+
+    /**
+     * Spliterator is not {@link Spliterator#SIZED}: size is only estimated, lazily and from the count cache of
+     * repository if it has one, so sequential streams do not count rows before reading them.
+     */
+    @Override
+    public int characteristics() {
+        return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.NONNULL;
+    }
+
+    void close() {
+        for (JpaRepository.CloseableIterator<T> opened; (opened = iterators.poll()) != null; )
+            opened.close();
+    }
+
+    private boolean resolveRange() {
+        final EntityManager entityManager = entityManagerFactory().createEntityManager();
+        try {
+            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<Tuple> query = cb.createTupleQuery();
+            final Root<T> root = query.from(repository.entityClass);
+            final Path<Number> id = root.get(idAttribute);
+            query.multiselect(cb.min(id), cb.max(id));
+
+            final Tuple range = entityManager.createQuery(query).getSingleResult();
+            if (range.get(0) == null)
+                return false;
+
+            this.lowest = ((Number) range.get(0)).longValue();
+            this.highest = ((Number) range.get(1)).longValue();
+            return true;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private EntityManagerFactory entityManagerFactory() {
+        return repository.entityManagerFactory;
+    }
+
+    private class RangeIterator implements JpaRepository.CloseableIterator<T> {
+        private final EntityManager entityManager = entityManagerFactory().createEntityManager();
+        private final JpaEntityPlan<T> plan = repository.plan();
+
+        private List<T> page;
+        private int pageRowIndex;
+        private boolean isLastPage;
+        private boolean isReleased;
+        private Long lastSeenId;
+
+        RangeIterator() {
+            this.page = retrievePage();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pageRowIndex < page.size())
+                return true;
+
+            if (!isLastPage) {
+                entityManager.clear();
+                page = retrievePage();
+                pageRowIndex = 0;
+            }
+
+            return pageRowIndex < page.size();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return page.get(pageRowIndex++);
+        }
+
+        @Override
+        public void close() {
+            if (isReleased)
+                return;
+
+            isReleased = true;
+            isLastPage = true;
+            page = Collections.emptyList();
+            pageRowIndex = 0;
+            entityManager.close();
+        }
+
+        private List<T> retrievePage() {
+            try {
+                final List<T> retrieved = retrieveNextPage();
+                if (isLastPage)
+                    close();
+                return retrieved;
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<T> retrieveNextPage() {
+            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<T> query = cb.createQuery(repository.entityClass);
+            final Root<T> root = query.from(repository.entityClass);
+            final Path<Comparable> id = root.get(idAttribute);
+
+            // the first page starts at lowest inclusively, as lowest - 1 may not fit into the id type
+            query.select(root)
+                    .where(lastSeenId == null
+                                    ? cb.greaterThanOrEqualTo(id, (Comparable) plan.integralId(lowest))
+                                    : cb.greaterThan(id, (Comparable) plan.integralId(lastSeenId)),
+                            cb.lessThanOrEqualTo(id, (Comparable) plan.integralId(highest)))
+                    .orderBy(cb.asc(id));
+
+            final TypedQuery<T> typedQuery = entityManager.createQuery(query);
+            typedQuery.setMaxResults(repository.getPageSize());
+
+            final List<T> retrieved = repository.fetch(typedQuery);
+            isLastPage = retrieved.size() < repository.getPageSize();
+            if (!retrieved.isEmpty())
+                lastSeenId = ((Number) repository.identifier(retrieved.get(retrieved.size() - 1))).longValue();
+
+            return retrieved;
+        }
+    }
+}
@@ -16,255 +16,1130 @@
 
 package com.github.wingsofovnia.reppy.jpa;
 
+import com.github.wingsofovnia.reppy.WriteBehindRepository;
 import com.github.wingsofovnia.reppy.api.Repository;
 import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.api.Specification;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
-import javax.persistence.metamodel.Attribute.PersistentAttributeType;
-import javax.persistence.metamodel.EntityType;
-import javax.persistence.metamodel.SingularAttribute;
-import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
-public class JpaRepository<T> extends Observable implements Repository<T> {
-    final EntityManager entityManager;
+/**
+ * {@link Repository} of JPA entities. Repository created with an {@link EntityManager} works within it and,
+ * as {@link EntityManager} itself, must be confined to a single thread. Repository created with an
+ * {@link EntityManagerFactory} gives each operation (and each iterator or stream) its own short-lived
+ * {@link EntityManager}, so one instance can be shared by any number of threads. Entities it returns are
+ * detached.
+ */
+public class JpaRepository<T> implements Repository<T>, WriteBehindRepository.BatchWriter<T> {
+    public static final int DEFAULT_PAGE_SIZE = 256;
+    static final int IN_LIST_CHUNK_SIZE = 500;
+    private static final Runnable NO_OP = () -> {};
+
+    final EntityManager sharedEntityManager;
+    final EntityManagerFactory entityManagerFactory;
     final Class<T> entityClass;
 
+    private volatile int pageSize = DEFAULT_PAGE_SIZE;
+    private volatile int batchSize;
+    private volatile int commitInterval;
+    private volatile RepositoryMetrics metrics;
+    private volatile JpaStatementAccounting statementAccounting;
+    private volatile boolean failFast;
+
+    private final AtomicLong modificationStamp = new AtomicLong();
+    private final AtomicLong cachedCount = new AtomicLong(-1);
+    private final AtomicInteger writers = new AtomicInteger();
+    private final Object countLock = new Object();
+    private volatile long countedAt;
+    private volatile long countCacheTtl;
+    private final Map<BitSet, ContainsQuery> containsQueries = new ConcurrentHashMap<>();
+    private volatile JpaEntityPlan<T> plan;
+
     public JpaRepository(EntityManager entityManager, Class<T> entityClass) {
-        this.entityManager = Objects.requireNonNull(entityManager);
+        this.sharedEntityManager = Objects.requireNonNull(entityManager);
+        this.entityManagerFactory = entityManager.getEntityManagerFactory();
+        this.entityClass = entityClass;
+        this.failFast = true;
+    }
+
+    public JpaRepository(EntityManagerFactory entityManagerFactory, Class<T> entityClass) {
+        this.sharedEntityManager = null;
+        this.entityManagerFactory = Objects.requireNonNull(entityManagerFactory);
         this.entityClass = entityClass;
     }
 
     @Override
     public void add(T subject) {
         Objects.requireNonNull(subject, "Repository is not suitable for null objects");
+        final JpaStatementAccounting.Call call = begin(Operation.ADD);
+        final long started = System.nanoTime();
+        modifying();
         try {
-            transaction(() -> entityManager.persist(subject));
-
-            setChanged();
-            notifyObservers();
+            transaction(entityManager -> entityManager.persist(subject));
+            changed(subject);
         } catch (Exception e) {
+            modificationFailed();
+            failed(Operation.ADD, started, call);
             throw new RepositoryException("Failed to add " + subject.toString() + " object.", e);
         }
+
+        modified(1);
+        recorded(Operation.ADD, started, call, 1);
     }
 
     @Override
     public void addAll(Stream<T> subjects) {
         Objects.requireNonNull(subjects, "Repository is not suitable for null objects");
 
-        try {
-            transaction(() -> {
-                subjects.forEach(entityManager::persist);
-            });
+        final JpaStatementAccounting.Call call = begin(Operation.ADD_ALL);
 
-            setChanged();
-            notifyObservers();
+        final long started = System.nanoTime();
+        modifying();
+        final long[] persisted = {0};
+        try {
+            if (batchSize > 0)
+                persisted[0] = persistInBatches(subjects);
+            else
+                transaction(entityManager -> subjects.forEach(s -> {
+                    entityManager.persist(s);
+                    changed(s);
+                    persisted[0]++;
+                }));
         } catch (Exception e) {
+            modificationFailed();
+            failed(Operation.ADD_ALL, started, call);
             throw new RepositoryException("Failed to add objects: " + subjects.toString(), e);
         }
+
+        modified(persisted[0]);
+        recorded(Operation.ADD_ALL, started, call, persisted[0]);
+    }
+
+    /**
+     * Persists subjects flushing and clearing persistence context every {@link #getBatchSize()} entities,
+     * so heap usage stays flat and JDBC driver receives INSERTs in batches (see
+     * {@link #jdbcBatchingProperties(int)}). A shared {@link EntityManager} is not cleared, only entities of the
+     * flushed batch are detached from it. If {@link #getCommitInterval()} is set, transaction is
+     * committed every that many batches and batches committed before a failure stay in database, which
+     * counts as a modification for open iterators.
+     */
+    private long persistInBatches(Stream<T> subjects) {
+        final Runnable written = writing();
+        try {
+            return withEntityManager(entityManager -> persistInBatches(entityManager, subjects));
+        } finally {
+            written.run();
+        }
+    }
+
+    private long persistInBatches(EntityManager entityManager, Stream<T> subjects) {
+        final EntityTransaction transaction = entityManager.getTransaction();
+        final FlushModeType flushMode = entityManager.getFlushMode();
+        entityManager.setFlushMode(FlushModeType.COMMIT);
+        final List<T> batch = entityManager == sharedEntityManager ? new ArrayList<>(batchSize) : null;
+        boolean committed = false;
+        try {
+            transaction.begin();
+
+            long persisted = 0;
+            for (Iterator<T> iterator = subjects.iterator(); iterator.hasNext(); ) {
+                final T subject = iterator.next();
+                entityManager.persist(subject);
+                changed(subject);
+                if (batch != null)
+                    batch.add(subject);
+                if (++persisted % batchSize != 0)
+                    continue;
+
+                entityManager.flush();
+                if (batch == null) {
+                    entityManager.clear();
+                } else {
+                    batch.forEach(entityManager::detach);
+                    batch.clear();
+                }
+                if (commitInterval > 0 && (persisted / batchSize) % commitInterval == 0) {
+                    transaction.commit();
+                    committed = true;
+                    transaction.begin();
+                }
+            }
+
+            transaction.commit();
+            return persisted;
+        } catch (RuntimeException e) {
+            if (transaction.isActive())
+                transaction.rollback();
+            if (committed)
+                modificationStamp.incrementAndGet();
+            throw e;
+        } finally {
+            entityManager.setFlushMode(flushMode);
+        }
     }
 
     @Override
     public void remove(T subject) {
         Objects.requireNonNull(subject, "Unable to remove null object");
+        final JpaStatementAccounting.Call call = begin(Operation.REMOVE);
+        final long started = System.nanoTime();
+        modifying();
+        final int[] removed = {0};
         try {
-            transaction(() -> {
-                entityManager.remove(entityManager.contains(subject) ? subject : entityManager.merge(subject));
-            });
-
-            setChanged();
-            notifyObservers();
+            transaction(entityManager -> removed[0] = remove(entityManager, subject));
+            changed(subject);
         } catch (Exception e) {
+            modificationFailed();
+            failed(Operation.REMOVE, started, call);
             throw new RepositoryException("Failed to remove object: " + subject.toString(), e);
         }
+
+        modified(-removed[0]);
+        recorded(Operation.REMOVE, started, call, removed[0]);
+    }
+
+    /**
+     * Removes the row of the subject, if there is one, loading it unless the subject is managed already.
+     *
+     * @return amount of removed rows
+     */
+    private int remove(EntityManager entityManager, T subject) {
+        final T managed;
+        if (entityManager.contains(subject)) {
+            managed = subject;
+        } else {
+            final Object id = identifier(subject);
+            managed = id != null ? entityManager.find(entityClass, id) : null;
+        }
+
+        if (managed == null)
+            return 0;
+        entityManager.remove(managed);
+        return 1;
     }
 
+    /**
+     * Removes subjects with {@code DELETE ... WHERE id IN (...)} statements of up to
+     * {@value #IN_LIST_CHUNK_SIZE} identifiers each, without loading them first. Subjects are evicted from the
+     * persistence context beforehand, and so is, with Hibernate, any other instance with a deleted id. Being
+     * bulk deletes, they bypass the persistence
+     * context, so cascades and lifecycle callbacks such as {@code @PreRemove} do not run for entities with
+     * an id attribute.
+     *
+     * @return amount of rows actually deleted
+     */
     @Override
     public int removeAll(Stream<T> subjects) {
         Objects.requireNonNull(subjects, "Unable to remove null object");
 
+        final int[] removed = {0};
+        final JpaStatementAccounting.Call call = begin(Operation.REMOVE_ALL);
+        final long started = System.nanoTime();
+        modifying();
+        try {
+            transaction(entityManager -> removed[0] = removeAll(entityManager, subjects));
+        } catch (Exception e) {
+            modificationFailed();
+            failed(Operation.REMOVE_ALL, started, call);
+            throw new RepositoryException("Failed to remove objects: " + subjects.toString(), e);
+        }
+
+        modified(-removed[0]);
+        recorded(Operation.REMOVE_ALL, started, call, removed[0]);
+        return removed[0];
+    }
+
+    private int removeAll(EntityManager entityManager, Stream<T> subjects) {
+        final Optional<String> idAttribute = plan().idAttribute();
         final AtomicInteger counter = new AtomicInteger(0);
-        transaction(() -> {
-            try {
-                subjects.forEach(s -> {
-                    entityManager.remove(entityManager.contains(s) ? s : entityManager.merge(s));
-                    counter.incrementAndGet();
+        if (!idAttribute.isPresent()) {
+            subjects.forEach(s -> {
+                counter.addAndGet(remove(entityManager, s));
+                changed(s);
+            });
+            return counter.get();
+        }
 
-                    setChanged();
-                    notifyObservers();
-                });
-            } catch (Exception e) {
-                throw new RepositoryException("Failed to remove objects: " + subjects.toString(), e);
+        final Set<Object> managed = managedIds(entityManager);
+        final List<Object> chunk = new ArrayList<>(IN_LIST_CHUNK_SIZE);
+        subjects.forEach(s -> {
+            final Object id = identifier(s);
+            changed(s);
+            if (entityManager.contains(s))
+                entityManager.detach(s);
+            if (id == null)
+                return;
+
+            chunk.add(id);
+            if (chunk.size() == IN_LIST_CHUNK_SIZE) {
+                counter.addAndGet(deleteAll(entityManager, idAttribute.get(), chunk, managed));
+                chunk.clear();
             }
         });
+
+        if (!chunk.isEmpty())
+            counter.addAndGet(deleteAll(entityManager, idAttribute.get(), chunk, managed));
         return counter.get();
     }
 
+    /**
+     * Applies a flush of {@link WriteBehindRepository} as one transaction: removes subjects as
+     * {@link #removeAll(Stream)} does and then persists additions, regardless of {@link #getBatchSize()} and
+     * {@link #getCommitInterval()}, so the batch is either applied as a whole or not at all.
+     */
+    @Override
+    public void writeBatch(Collection<T> removals, Collection<T> additions) {
+        Objects.requireNonNull(removals, "Unable to remove null object");
+        Objects.requireNonNull(additions, "Repository is not suitable for null objects");
+
+        final int[] removed = {0};
+        final JpaStatementAccounting.Call call = begin(Operation.WRITE_BATCH);
+        final long started = System.nanoTime();
+        modifying();
+        try {
+            transaction(entityManager -> {
+                removed[0] = removeAll(entityManager, removals.stream());
+                additions.forEach(s -> {
+                    entityManager.persist(s);
+                    changed(s);
+                });
+            });
+        } catch (Exception e) {
+            modificationFailed();
+            failed(Operation.WRITE_BATCH, started, call);
+            throw new RepositoryException("Failed to write batch of " + entityClass.getName() + " objects.", e);
+        }
+
+        modified(additions.size() - removed[0]);
+        recorded(Operation.WRITE_BATCH, started, call, removed[0] + additions.size());
+    }
+
+    /**
+     * @param managed ids of instances managed by the entity manager, which are detached if deleted
+     */
+    private int deleteAll(EntityManager entityManager, String idAttribute, Collection<?> ids, Set<Object> managed) {
+        for (Object id : ids)
+            if (managed.contains(id))
+                entityManager.detach(entityManager.find(entityClass, id));
+
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaDelete<T> query = builder.createCriteriaDelete(entityClass);
+        Root<T> root = query.from(entityClass);
+        query.where(root.get(idAttribute).in(ids));
+
+        return entityManager.createQuery(query).executeUpdate();
+    }
+
+    /**
+     * Looks into the persistence context once, as it may be large. Plain JPA can only tell whether a given
+     * instance is managed, and a reference to a missing row may fail, so no ids are known without Hibernate.
+     *
+     * @return ids of entities managed by a shared entity manager, empty for one owned by a single operation
+     */
+    private Set<Object> managedIds(EntityManager entityManager) {
+        if (entityManager != sharedEntityManager || !JpaCursors.isSupported(entityManager))
+            return Collections.emptySet();
+        return JpaPersistenceContext.managedIds(entityManager, entityClass);
+    }
+
+    /**
+     * Looks for a row whose BASIC attributes equal non-null BASIC attributes of the subject. Lookup selects
+     * only id of at most one row, and its criteria query is built once per combination of null attributes.
+     */
     @Override
     public boolean contains(T subject) {
         Objects.requireNonNull(subject, "Repository is not suitable for null objects");
 
-        final EntityType<T> entityType = entityManager.getMetamodel().entity(entityClass);
-        final Set<SingularAttribute<? super T, ?>> singularAttributes = entityType.getSingularAttributes();
+        final Object[] values = plan().values(subject);
+        final ContainsQuery containsQuery = containsQuery(values);
+        final JpaStatementAccounting.Call call = begin(Operation.CONTAINS);
+        final long started = System.nanoTime();
+        final boolean exists;
+        try {
+            exists = withEntityManager(entityManager -> containsQuery.exists(entityManager, values));
+        } catch (RuntimeException e) {
+            failed(Operation.CONTAINS, started, call);
+            throw e;
+        }
+        recorded(Operation.CONTAINS, started, call, exists ? 1 : 0);
+        return exists;
+    }
+
+    private ContainsQuery containsQuery(Object[] values) {
+        return containsQueries.computeIfAbsent(signature(values), ContainsQuery::new);
+    }
 
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-        CriteriaQuery<T> criteriaQuery = cb.createQuery(entityClass);
-        Root<T> selectTable = criteriaQuery.from(entityClass);
+    private static BitSet signature(Object[] values) {
+        final BitSet signature = new BitSet(values.length);
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null)
+                signature.set(i);
+        return signature;
+    }
 
-        Predicate[] restrictions = singularAttributes.stream()
-                .filter(attr -> attr.getPersistentAttributeType() == PersistentAttributeType.BASIC)
-                .map(attr -> {
-                    try {
-                        final Field field = (Field) attr.getJavaMember();
-                        field.setAccessible(true);
-                        Optional<Object> fieldValue = Optional.ofNullable(field.get(subject));
+    private class ContainsQuery {
+        private final CriteriaQuery<?> criteriaQuery;
+        private final Map<Integer, ParameterExpression<?>> parameters = new LinkedHashMap<>();
 
-                        if (fieldValue.isPresent())
-                            return cb.equal(selectTable.get(attr), fieldValue.get());
+        @SuppressWarnings("unchecked")
+        ContainsQuery(BitSet signature) {
+            final JpaEntityPlan<T> plan = plan();
+            final CriteriaBuilder cb = entityManagerFactory.getCriteriaBuilder();
+            final CriteriaQuery<Object> criteriaQuery = cb.createQuery(Object.class);
+            final Root<T> root = criteriaQuery.from(entityClass);
 
-                        return null;
-                    } catch (IllegalAccessException e) {
-                        throw new RepositoryException(e);
-                    }
-                }).filter(v -> v != null).toArray(Predicate[]::new);
+            final List<Predicate> restrictions = new ArrayList<>();
+            signature.stream().forEach(i -> {
+                ParameterExpression<?> parameter = cb.parameter(plan.attributeType(i));
+                parameters.put(i, parameter);
+                restrictions.add(cb.equal(root.get(plan.attributes().get(i)), parameter));
+            });
 
-        criteriaQuery.select(selectTable);
-        criteriaQuery.where(cb.and(restrictions));
-        return entityManager.createQuery(criteriaQuery).getResultList().size() > 0;
+            final Selection<?> selection = plan.idAttribute().<Selection<?>>map(root::get).orElse(root);
+            criteriaQuery.select((Selection<Object>) selection);
+            criteriaQuery.where(restrictions.toArray(new Predicate[restrictions.size()]));
+            this.criteriaQuery = criteriaQuery;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean exists(EntityManager entityManager, Object[] values) {
+            final TypedQuery<?> query = entityManager.createQuery(criteriaQuery);
+            parameters.forEach((i, parameter) -> query.setParameter((ParameterExpression<Object>) parameter, values[i]));
+            query.setMaxResults(1);
+            return !query.getResultList().isEmpty();
+        }
     }
 
+    /**
+     * Checks subjects in chunks of {@value #IN_LIST_CHUNK_SIZE}: subjects with identifiers are matched by
+     * a single query per chunk selecting ids of rows that equal any of them, the rest are grouped by the set of
+     * their non-null attributes and each group is matched by a single query selecting those attributes.
+     * Values are bound as parameters. Attributes are compared by the database only, so the rules are exactly
+     * those of {@link #contains(Object)}. Stops on the first chunk having a missing subject.
+     */
     @Override
     public boolean containsAll(Stream<T> subjects) {
         Objects.requireNonNull(subjects, "Repository is not suitable for null objects");
-        return subjects.allMatch(this::contains);
+        final JpaStatementAccounting.Call call = begin(Operation.CONTAINS_ALL);
+        final long started = System.nanoTime();
+        final boolean containsAll;
+        try {
+            containsAll = withEntityManager(entityManager -> containsAll(entityManager, subjects));
+        } catch (RuntimeException e) {
+            failed(Operation.CONTAINS_ALL, started, call);
+            throw e;
+        }
+        recorded(Operation.CONTAINS_ALL, started, call, 0);
+        return containsAll;
+    }
+
+    private boolean containsAll(EntityManager entityManager, Stream<T> subjects) {
+        final List<T> chunk = new ArrayList<>(IN_LIST_CHUNK_SIZE);
+        for (Iterator<T> iterator = subjects.iterator(); iterator.hasNext(); ) {
+            chunk.add(Objects.requireNonNull(iterator.next(), "Repository is not suitable for null objects"));
+            if (chunk.size() < IN_LIST_CHUNK_SIZE && iterator.hasNext())
+                continue;
+
+            if (!containsChunk(entityManager, chunk))
+                return false;
+            chunk.clear();
+        }
+        return true;
     }
 
+    private boolean containsChunk(EntityManager entityManager, List<T> chunk) {
+        final JpaEntityPlan<T> plan = plan();
+        final int idIndex = plan.idIndex();
+
+        final List<Object[]> identified = new ArrayList<>();
+        final Map<BitSet, List<Object[]>> anonymous = new LinkedHashMap<>();
+        for (T subject : chunk) {
+            final Object[] values = plan.values(subject);
+            if (idIndex >= 0 && values[idIndex] != null)
+                identified.add(values);
+            else
+                anonymous.computeIfAbsent(signature(values), signature -> new ArrayList<>()).add(values);
+        }
+
+        if (!identified.isEmpty()) {
+            final CriteriaQuery<Object> criteriaQuery = entityManager.getCriteriaBuilder().createQuery(Object.class);
+            final Root<T> root = criteriaQuery.from(entityClass);
+            criteriaQuery.select(root.get(plan.attributes().get(idIndex)));
+
+            final Set<Object> matchedIds = new HashSet<>(fetchMatching(entityManager, criteriaQuery, root, identified));
+            if (!identified.stream().allMatch(values -> matchedIds.contains(values[idIndex])))
+                return false;
+        }
+
+        for (Map.Entry<BitSet, List<Object[]>> group : anonymous.entrySet())
+            if (!containsGroup(entityManager, group.getKey(), group.getValue()))
+                return false;
+        return true;
+    }
+
+    /**
+     * Selects distinct tuples of the signature attributes of rows equal to any of the subjects. A subject whose
+     * tuple is not among them by {@link Object#equals(Object)}, e.g. because the database compares strings
+     * ignoring case, is rechecked with the existence query, so the database remains the only judge.
+     */
+    private boolean containsGroup(EntityManager entityManager, BitSet signature, List<Object[]> group) {
+        if (signature.isEmpty())
+            return containsQuery(group.get(0)).exists(entityManager, group.get(0));
+
+        final List<String> attributes = plan().attributes();
+        final int[] indexes = signature.stream().toArray();
+        final CriteriaQuery<Object> criteriaQuery = entityManager.getCriteriaBuilder().createQuery(Object.class);
+        final Root<T> root = criteriaQuery.from(entityClass);
+        criteriaQuery.multiselect(Arrays.stream(indexes)
+                .mapToObj(i -> root.get(attributes.get(i)))
+                .toArray(Selection[]::new));
+        criteriaQuery.distinct(true);
+
+        final Set<List<Object>> matched = new HashSet<>();
+        for (Object row : fetchMatching(entityManager, criteriaQuery, root, group))
+            matched.add(indexes.length == 1 ? Collections.singletonList(row) : Arrays.asList((Object[]) row));
+
+        for (Object[] values : group) {
+            final List<Object> tuple = Arrays.asList(Arrays.stream(indexes).mapToObj(i -> values[i]).toArray());
+            if (!matched.contains(tuple) && !containsQuery(values).exists(entityManager, values))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Restricts the query to rows equal to any of the subjects, binding their values as parameters
+     * so that statements of the same shape are reused.
+     */
+    @SuppressWarnings("unchecked")
+    private <R> List<R> fetchMatching(EntityManager entityManager, CriteriaQuery<R> criteriaQuery, Root<T> root,
+                                      List<Object[]> subjects) {
+        final JpaEntityPlan<T> plan = plan();
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final Map<ParameterExpression<Object>, Object> bindings = new LinkedHashMap<>();
+        criteriaQuery.where(cb.or(subjects.stream().map(values -> {
+            final List<Predicate> restrictions = new ArrayList<>();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null)
+                    continue;
+                final ParameterExpression<Object> parameter =
+                        (ParameterExpression<Object>) cb.parameter(plan.attributeType(i));
+                bindings.put(parameter, values[i]);
+                restrictions.add(cb.equal(root.get(plan.attributes().get(i)), parameter));
+            }
+            return cb.and(restrictions.toArray(new Predicate[restrictions.size()]));
+        }).toArray(Predicate[]::new)));
+
+        final TypedQuery<R> query = entityManager.createQuery(criteriaQuery);
+        bindings.forEach(query::setParameter);
+        return fetch(query);
+    }
+
+    /**
+     * Counts rows with {@code count(*)}. If {@link #setCountCacheTtl(long, TimeUnit) count cache} is enabled,
+     * the count is reused until it expires, adjusted by rows this repository has added or removed meanwhile.
+     * Changes made by other writers become visible once the count is refreshed.
+     */
     @Override
     public long size() {
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final JpaStatementAccounting.Call call = begin(Operation.SIZE);
+        final long started = System.nanoTime();
+        final long size;
+        try {
+            final long cached = cachedCount();
+            size = cached >= 0 ? cached : count();
+        } catch (RuntimeException e) {
+            failed(Operation.SIZE, started, call);
+            throw e;
+        }
+        recorded(Operation.SIZE, started, call, 1);
+        return size;
+    }
+
+    private long count() {
+        CriteriaBuilder cb = entityManagerFactory.getCriteriaBuilder();
         CriteriaQuery<Long> query = cb.createQuery(Long.class);
         Root<T> root = query.from(entityClass);
-
         query.select(cb.count(root));
-        return entityManager.createQuery(query).getSingleResult();
+
+        final long stamp = modificationStamp.get();
+        final long count = withEntityManager(entityManager -> entityManager.createQuery(query).getSingleResult());
+        if (countCacheTtl > 0) {
+            synchronized (countLock) {
+                if (writers.get() == 0 && modificationStamp.get() == stamp) {
+                    countedAt = System.nanoTime();
+                    cachedCount.set(count);
+                }
+            }
+        }
+        return count;
     }
 
+    /**
+     * @return count cached within its ttl, or -1
+     */
+    private long cachedCount() {
+        final long ttl = countCacheTtl;
+        final long cached = cachedCount.get();
+        return ttl > 0 && cached >= 0 && System.nanoTime() - countedAt < ttl ? Math.max(cached, 0) : -1;
+    }
+
+    /**
+     * @return row count from the count cache, counting rows only if it is disabled or expired
+     */
+    long estimatedSize() {
+        final long cached = cachedCount();
+        return cached >= 0 ? cached : count();
+    }
+
+    /**
+     * Looks for any row with a single-row query instead of counting them, unless count cache has it.
+     */
     @Override
     public boolean isEmpty() {
-        return size() == 0L;
+        final JpaStatementAccounting.Call call = begin(Operation.IS_EMPTY);
+        final long started = System.nanoTime();
+        final boolean empty;
+        try {
+            final long cached = cachedCount();
+            empty = cached >= 0 ? cached == 0 : !exists();
+        } catch (RuntimeException e) {
+            failed(Operation.IS_EMPTY, started, call);
+            throw e;
+        }
+        recorded(Operation.IS_EMPTY, started, call, empty ? 0 : 1);
+        return empty;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean exists() {
+        CriteriaBuilder cb = entityManagerFactory.getCriteriaBuilder();
+        CriteriaQuery<Object> query = cb.createQuery(Object.class);
+        Root<T> root = query.from(entityClass);
+        query.select((Selection<Object>) plan().idAttribute().<Selection<?>>map(root::get).orElse(root));
+
+        return withEntityManager(entityManager -> !entityManager.createQuery(query).setMaxResults(1)
+                .getResultList().isEmpty());
     }
 
     @Override
     public void clear() {
+        final JpaStatementAccounting.Call call = begin(Operation.CLEAR);
+        final long started = System.nanoTime();
+        modifying();
+        final int[] deleted = {0};
         try {
-            transaction(() -> {
+            transaction(entityManager -> {
                 CriteriaBuilder builder = entityManager.getCriteriaBuilder();
                 CriteriaDelete<T> query = builder.createCriteriaDelete(entityClass);
                 query.from(entityClass);
-                entityManager.createQuery(query).executeUpdate();
+                deleted[0] = entityManager.createQuery(query).executeUpdate();
 
                 entityManager.clear();
             });
-
-            setChanged();
-            notifyObservers();
+            changedAll();
         } catch (Exception e) {
+            modificationFailed();
+            failed(Operation.CLEAR, started, call);
             throw new RepositoryException("Failed to clear repository of " + entityClass.getName() + " objects.", e);
         }
+
+        cleared();
+        recorded(Operation.CLEAR, started, call, deleted[0]);
     }
 
     @Override
     public Iterator<T> iterator() {
-        JpaIterator<T> iterator = new JpaIterator<>(entityClass);
-        this.addObserver(iterator);
-        return iterator;
+        return iterator(null);
+    }
+
+    /**
+     * Translates specification with {@link JpaSpecifications#from(Specification)} and pages through the matches.
+     */
+    @Override
+    public Stream<T> find(Specification<T> specification) {
+        Objects.requireNonNull(specification, "Cannot retrieve object by null specification");
+        return pages(JpaSpecifications.from(specification));
+    }
+
+    CloseableIterator<T> iterator(JpaSpecification<T> specification) {
+        return new JpaIterator(specification);
+    }
+
+    /**
+     * @return stream over {@link #iterator(JpaSpecification)} that releases it once closed
+     */
+    Stream<T> pages(JpaSpecification<T> specification) {
+        final CloseableIterator<T> iterator = iterator(specification);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    /**
+     * Iterator that may hold an {@link EntityManager} or statement accounting until it is exhausted or closed.
+     */
+    interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+        @Override
+        void close();
     }
 
-    private class JpaIterator<E> implements Iterator<E>, Observer {
-        private static final int ROWS_PER_PAGE = 32;
+    /**
+     * Iterates over repository in pages of {@link #getPageSize()} rows. If entity has a single id attribute,
+     * pages are ordered by id and retrieved with {@code id > lastSeenId} (keyset pagination), so each page
+     * costs the same regardless of how deep the iteration is. Entities of a consumed page are detached from
+     * {@link EntityManager} to keep persistence context bounded during long scans. Iterator of repository
+     * backed by {@link EntityManagerFactory} fetches every page with a short-lived {@link EntityManager}, so
+     * an iterator that is abandoned before the last page holds no connection.
+     * <p>
+     * Iterator is fail-fast if {@link #isFailFast()}: it remembers {@link #modificationStamp} it was created at
+     * and throws {@link ConcurrentModificationException} once repository has been modified since then.
+     */
+    private class JpaIterator implements CloseableIterator<T> {
+        private final JpaSpecification<T> specification;
+        private final String idAttribute;
 
-        private List<E> page;
-        private long pageIndex;
-        private long pageRowIndex;
-        private final long totalRows;
-        private final Class<E> entityClass;
+        private List<T> page;
+        private int pageRowIndex;
+        private int offset;
+        private Object lastSeenId;
+        private boolean isLastPage;
+        private boolean isReleased;
 
-        private boolean isConcurrentModification = false;
+        private final long expectedModificationStamp = failFast ? modificationStamp.get() : -1;
+        private final JpaStatementAccounting.Call call;
 
-        JpaIterator(Class<E> entityClass) {
-            this.entityClass = Objects.requireNonNull(entityClass);
-            this.totalRows = size();
-            this.page = retrievePage(Math.toIntExact(pageIndex * ROWS_PER_PAGE), ROWS_PER_PAGE);
+        JpaIterator(JpaSpecification<T> specification) {
+            final JpaStatementAccounting statementAccounting = JpaRepository.this.statementAccounting;
+            this.call = statementAccounting != null ? statementAccounting.call(Operation.ITERATE, entityClass) : null;
+            this.specification = specification;
+            this.idAttribute = plan().comparableIdAttribute().orElse(null);
+            this.page = retrievePage();
         }
 
         @Override
         public boolean hasNext() {
-            boolean hasNextIndex = pageIndex * ROWS_PER_PAGE + pageRowIndex < totalRows;
-            if (!hasNextIndex)
-                deleteObserver(this);
+            if (pageRowIndex < page.size())
+                return true;
+
+            if (!isLastPage) {
+                if (sharedEntityManager != null)
+                    page.forEach(sharedEntityManager::detach);
+                this.page = retrievePage();
+                this.pageRowIndex = 0;
+            }
 
-            return hasNextIndex;
+            return pageRowIndex < page.size();
         }
 
         @Override
-        public E next() {
-            if (this.isConcurrentModification)
+        public T next() {
+            if (expectedModificationStamp >= 0 && modificationStamp.get() != expectedModificationStamp)
                 throw new ConcurrentModificationException();
             if (!hasNext())
                 throw new NoSuchElementException();
 
-            return getCurrentPage().get(Math.toIntExact(pageRowIndex++));
+            return page.get(pageRowIndex++);
         }
 
         @Override
-        public void update(Observable o, Object arg) {
-            this.isConcurrentModification = true;
-        }
+        public void close() {
+            if (isReleased)
+                return;
 
-        private List<E> getCurrentPage() {
-            if (page.size() > pageRowIndex)
-                return this.page;
+            isReleased = true;
+            isLastPage = true;
+            page = Collections.emptyList();
+            pageRowIndex = 0;
+            if (call != null)
+                call.complete();
+        }
 
-            this.pageIndex++;
-            this.pageRowIndex = 0;
-            this.page = retrievePage(Math.toIntExact(pageIndex * ROWS_PER_PAGE), ROWS_PER_PAGE);
+        private List<T> retrievePage() {
+            try {
+                final List<T> retrieved;
+                if (call == null) {
+                    retrieved = withEntityManager(this::retrieveNextPage);
+                } else {
+                    call.enter();
+                    try {
+                        retrieved = withEntityManager(this::retrieveNextPage);
+                        call.rows(retrieved.size());
+                    } finally {
+                        call.exit();
+                    }
+                }
 
-            return this.page;
+                if (isLastPage)
+                    close();
+                return retrieved;
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
         }
 
-        private List<E> retrievePage(int offset, int amount) {
+        @SuppressWarnings("unchecked")
+        private List<T> retrieveNextPage(EntityManager entityManager) {
             CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<E> criteriaQuery = criteriaBuilder.createQuery(entityClass);
-            Root<E> from = criteriaQuery.from(entityClass);
+            CriteriaQuery<T> criteriaQuery = criteriaBuilder.createQuery(entityClass);
+            Root<T> from = criteriaQuery.from(entityClass);
+            criteriaQuery.select(from);
+
+            List<Predicate> restrictions = new ArrayList<>(2);
+            if (specification != null)
+                restrictions.add(specification.toPredicate(from, criteriaQuery, criteriaBuilder));
+
+            if (idAttribute != null) {
+                Path<Comparable> id = from.get(idAttribute);
+                if (lastSeenId != null)
+                    restrictions.add(criteriaBuilder.greaterThan(id, (Comparable) lastSeenId));
+                criteriaQuery.orderBy(criteriaBuilder.asc(id));
+            }
+            criteriaQuery.where(restrictions.toArray(new Predicate[restrictions.size()]));
+
+            TypedQuery<T> typedQuery = entityManager.createQuery(criteriaQuery);
+            if (idAttribute == null)
+                typedQuery.setFirstResult(offset);
+            typedQuery.setMaxResults(pageSize);
 
-            CriteriaQuery<E> select = criteriaQuery.select(from);
-            TypedQuery<E> typedQuery = entityManager.createQuery(select);
-            typedQuery.setFirstResult(Math.toIntExact(offset));
-            typedQuery.setMaxResults(amount);
+            List<T> retrieved = fetch(typedQuery);
+            this.isLastPage = retrieved.size() < pageSize;
+            this.offset += retrieved.size();
+            if (!retrieved.isEmpty())
+                this.lastSeenId = identifier(retrieved.get(retrieved.size() - 1));
 
-            return typedQuery.getResultList();
+            return retrieved;
         }
     }
 
+    /**
+     * Unless split, spliterator traverses repository as {@link #iterator()} does. Entities with integral id can
+     * be split into id ranges for parallel streams, every range is fetched through its own
+     * {@link EntityManager} created from the {@link EntityManagerFactory} of repository.
+     */
     @Override
     public Spliterator<T> spliterator() {
-        return Spliterators.spliterator(iterator(), size(),
-                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.IMMUTABLE |
-                        Spliterator.NONNULL | Spliterator.SIZED);
+        return new JpaRangeSpliterator<>(this);
     }
 
-    private void transaction(Runnable action) {
-        entityManager.getTransaction().begin();
-        action.run();
-        entityManager.getTransaction().commit();
+    /**
+     * Streams {@link #spliterator()}, releasing {@link EntityManager}s of every part it has been split into once
+     * the stream is closed.
+     */
+    @Override
+    public Stream<T> stream() {
+        final JpaRangeSpliterator<T> spliterator = new JpaRangeSpliterator<>(this);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Runs the query, recording it as {@link Operation#FETCH} with the amount of fetched rows.
+     */
+    <R> List<R> fetch(TypedQuery<R> query) {
+        final long started = System.nanoTime();
+        final List<R> rows;
+        try {
+            rows = query.getResultList();
+        } catch (RuntimeException e) {
+            failed(Operation.FETCH, started, null);
+            throw e;
+        }
+        recorded(Operation.FETCH, started, null, rows.size());
+        return rows;
+    }
+
+    /**
+     * Starts accounting statements of the operation, if enabled. The operation has to be completed with either
+     * {@link #recorded} or {@link #failed} given the returned call, even if accounting has been changed since.
+     *
+     * @return call current on this thread, or null if accounting is disabled
+     */
+    JpaStatementAccounting.Call begin(Operation operation) {
+        final JpaStatementAccounting statementAccounting = this.statementAccounting;
+        return statementAccounting != null ? statementAccounting.begin(operation, entityClass) : null;
+    }
+
+    void recorded(Operation operation, long started, JpaStatementAccounting.Call call, long rows) {
+        final RepositoryMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.record(operation, started, rows);
+        accounted(call, rows);
+    }
+
+    void failed(Operation operation, long started, JpaStatementAccounting.Call call) {
+        final RepositoryMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.failed(operation, started);
+        accounted(call, 0);
+    }
+
+    static void accounted(JpaStatementAccounting.Call call, long rows) {
+        if (call != null) {
+            call.rows(rows);
+            call.complete();
+        }
     }
 
+    /**
+     * Starts a write, which has to be completed with {@link #modified(long)}, {@link #cleared()} or
+     * {@link #modificationFailed()}. Rows counted while any write is in progress are not cached, as the count may
+     * or may not include rows the write is committing, so its delta could be applied to the cache twice.
+     */
+    private void modifying() {
+        writers.incrementAndGet();
+    }
+
+    /**
+     * Completes a write that has committed, adjusting the cached count by rows it has actually changed.
+     */
+    private void modified(long delta) {
+        synchronized (countLock) {
+            writers.decrementAndGet();
+            modificationStamp.incrementAndGet();
+            if (cachedCount.get() >= 0)
+                cachedCount.addAndGet(delta);
+        }
+    }
+
+    /**
+     * Completes a write that has deleted all rows. Rows committed by writes still in progress may or may not
+     * have been deleted too, so the count is cached only if there are none.
+     */
+    private void cleared() {
+        synchronized (countLock) {
+            writers.decrementAndGet();
+            modificationStamp.incrementAndGet();
+            countedAt = System.nanoTime();
+            cachedCount.set(writers.get() == 0 ? 0 : -1);
+        }
+    }
+
+    /**
+     * Completes a write that has failed, part of which may have been committed nonetheless.
+     */
+    private void modificationFailed() {
+        synchronized (countLock) {
+            writers.decrementAndGet();
+            cachedCount.set(-1);
+        }
+    }
+
+    long modificationStamp() {
+        return modificationStamp.get();
+    }
+
+    /**
+     * Called before a write transaction begins, so that subclasses can stop deriving state from rows it may
+     * change.
+     *
+     * @return called once the transaction has been committed or rolled back
+     */
+    Runnable writing() {
+        return NO_OP;
+    }
+
+    /**
+     * Called once subject has been added or removed, so that subclasses can drop state derived from it.
+     */
+    void changed(T subject) {
+    }
+
+    /**
+     * Called once repository has been changed in a way that cannot be attributed to particular subjects.
+     */
+    void changedAll() {
+    }
+
+    JpaEntityPlan<T> plan() {
+        JpaEntityPlan<T> plan = this.plan;
+        if (plan == null)
+            this.plan = plan = JpaEntityPlan.of(entityManagerFactory.getMetamodel(), entityClass);
+        return plan;
+    }
+
+    Object identifier(T entity) {
+        return entityManagerFactory.getPersistenceUnitUtil().getIdentifier(entity);
+    }
+
+    /**
+     * @return {@link EntityManager} of repository, or a new one if repository is backed by
+     * {@link EntityManagerFactory}
+     */
+    EntityManager acquireEntityManager() {
+        return sharedEntityManager != null ? sharedEntityManager : entityManagerFactory.createEntityManager();
+    }
+
+    void releaseEntityManager(EntityManager acquired) {
+        if (acquired != sharedEntityManager && acquired.isOpen())
+            acquired.close();
+    }
+
+    <R> R withEntityManager(Function<EntityManager, R> operation) {
+        final EntityManager acquired = acquireEntityManager();
+        try {
+            return operation.apply(acquired);
+        } finally {
+            releaseEntityManager(acquired);
+        }
+    }
+
+    private void transaction(Consumer<EntityManager> action) {
+        final Runnable written = writing();
+        try {
+            withEntityManager(entityManager -> {
+                final EntityTransaction transaction = entityManager.getTransaction();
+                transaction.begin();
+                try {
+                    action.accept(entityManager);
+                    transaction.commit();
+                } catch (RuntimeException e) {
+                    if (transaction.isActive())
+                        transaction.rollback();
+                    throw e;
+                }
+                return null;
+            });
+        } finally {
+            written.run();
+        }
+    }
+
+    /**
+     * @return {@link EntityManager} repository works within, or null if it is backed by
+     * {@link EntityManagerFactory}
+     */
     public EntityManager getEntityManager() {
-        return entityManager;
+        return sharedEntityManager;
+    }
+
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    /**
+     * Hibernate settings that make the driver send flushed INSERTs and UPDATEs in JDBC batches grouped by
+     * entity type. JPA has no per-{@link EntityManager} switch for this, so they are meant to be passed
+     * when {@link EntityManagerFactory} is created, typically with the same value as
+     * {@link #setBatchSize(int)}.
+     */
+    public static Map<String, String> jdbcBatchingProperties(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Batch size must be positive");
+
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        properties.put("hibernate.jdbc.batch_versioned_data", "true");
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+        return properties;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize amount of entities {@link #addAll(Stream)} persists before flushing and clearing
+     *                  persistence context, 0 disables batching
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 0)
+            throw new IllegalArgumentException("Batch size must not be negative");
+        this.batchSize = batchSize;
+    }
+
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * @param commitInterval amount of batches {@link #addAll(Stream)} commits at once, 0 makes the whole
+     *                       stream to be added in a single transaction
+     */
+    public void setCommitInterval(int commitInterval) {
+        if (commitInterval < 0)
+            throw new IllegalArgumentException("Commit interval must not be negative");
+        this.commitInterval = commitInterval;
+    }
+
+    public long getCountCacheTtl(TimeUnit unit) {
+        return unit.convert(countCacheTtl, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param ttl how long {@link #size()} may reuse a counted row count, 0 disables count cache
+     */
+    public void setCountCacheTtl(long ttl, TimeUnit unit) {
+        if (ttl < 0)
+            throw new IllegalArgumentException("Count cache ttl must not be negative");
+        this.countCacheTtl = unit.toNanos(ttl);
+        if (ttl == 0)
+            cachedCount.set(-1);
+    }
+
+    public JpaStatementAccounting getStatementAccounting() {
+        return statementAccounting;
+    }
+
+    /**
+     * @param statementAccounting accounting to attribute statements of every call to, requires
+     *                            {@link JpaStatementInterceptor} to be installed; null disables accounting
+     */
+    public void setStatementAccounting(JpaStatementAccounting statementAccounting) {
+        this.statementAccounting = statementAccounting;
+    }
+
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics metrics to record operations into, with every page or lookup query recorded as
+     *                {@link Operation#FETCH} along with the rows it fetched; null disables recording
+     */
+    public void setMetrics(RepositoryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * Iterators and spliterators of a fail-fast repository throw {@link ConcurrentModificationException} once
+     * the repository has been modified after they were created. Modifications are tracked per repository
+     * rather than per thread, so a repository backed by {@link EntityManagerFactory} shared by concurrent
+     * threads would fail every in-flight iteration on any write; fail-fast is therefore off for it by default
+     * and on for a repository working within an {@link EntityManager}.
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("Page size must be positive");
+        this.pageSize = pageSize;
     }
 }
@@ -18,50 +18,455 @@ package com.github.wingsofovnia.reppy.jpa;
 
 import com.github.wingsofovnia.reppy.api.RepositoryException;
 import com.github.wingsofovnia.reppy.api.SequenceRepository;
+import com.github.wingsofovnia.reppy.api.Specification;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.Bindable;
+import javax.persistence.metamodel.SingularAttribute;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class JpaSequenceRepository<T, ID extends Serializable> extends JpaRepository<T>
         implements SequenceRepository<T, ID> {
+    public static final int DEFAULT_FETCH_SIZE = 256;
+    public static final int DEFAULT_QUERY_CACHE_SIZE = 64;
+
+    private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+    private volatile int queryCacheSize = DEFAULT_QUERY_CACHE_SIZE;
+    private volatile JpaEntityCache<ID, T> entityCache;
+
+    private final Map<String, JpaParameterizedSpecification.Compiled<T>> compiledQueries =
+            new LinkedHashMap<String, JpaParameterizedSpecification.Compiled<T>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, JpaParameterizedSpecification.Compiled<T>> eldest) {
+                    return size() > queryCacheSize;
+                }
+            };
 
     public JpaSequenceRepository(EntityManager entityManager, Class<T> entityClass) {
         super(entityManager, entityClass);
     }
 
+    public JpaSequenceRepository(EntityManagerFactory entityManagerFactory, Class<T> entityClass) {
+        super(entityManagerFactory, entityClass);
+    }
+
+    public JpaEntityCache<ID, T> getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * @param entityCache cache {@link #get(Serializable)} reads through, or null to read from
+     *                    {@link EntityManager} directly
+     */
+    public void setEntityCache(JpaEntityCache<ID, T> entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    public int getQueryCacheSize() {
+        return queryCacheSize;
+    }
+
+    /**
+     * @param queryCacheSize maximum amount of compiled specification queries to keep, 0 disables compilation
+     */
+    public void setQueryCacheSize(int queryCacheSize) {
+        if (queryCacheSize < 0)
+            throw new IllegalArgumentException("Query cache size must not be negative");
+
+        synchronized (compiledQueries) {
+            this.queryCacheSize = queryCacheSize;
+            compiledQueries.clear();
+        }
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize <= 0)
+            throw new IllegalArgumentException("Fetch size must be positive");
+        this.fetchSize = fetchSize;
+    }
+
     @Override
     public Optional<T> get(ID index) {
         Objects.requireNonNull(index, "Cannot retrieve object by null identifier");
-        return Optional.ofNullable(entityManager.find(entityClass, index));
+
+        final JpaStatementAccounting.Call call = begin(Operation.GET);
+
+        final long started = System.nanoTime();
+        final T found;
+        try {
+            final JpaEntityCache<ID, T> entityCache = this.entityCache;
+            found = entityCache != null ? entityCache.get(index, this::find) : find(index);
+        } catch (RuntimeException e) {
+            failed(Operation.GET, started, call);
+            throw e;
+        }
+        recorded(Operation.GET, started, call, found != null ? 1 : 0);
+        return Optional.ofNullable(found);
+    }
+
+    private T find(ID index) {
+        return withEntityManager(entityManager -> entityManager.find(entityClass, index));
     }
 
     @Override
     public Stream<T> getAll() {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<T> criteriaQuery = criteriaBuilder.createQuery(entityClass);
-        Root<T> root = criteriaQuery.from(entityClass);
-
-        return entityManager.createQuery(criteriaQuery.select(root)).getResultList().stream();
+        return stream(Operation.GET_ALL, null);
     }
 
     public Stream<T> get(JpaSpecification<T> specification) {
         Objects.requireNonNull(specification, "Cannot retrieve object by null specification");
+        return stream(Operation.FIND, specification);
+    }
+
+    /**
+     * Selects only the attributes of matching entities as {@link Tuple}s aliased by attribute names.
+     *
+     * @param specification restriction of selected rows, or null to select all of them
+     * @param attributes    attribute names, nested ones separated by dots
+     */
+    public Stream<Tuple> getTuples(JpaSpecification<T> specification, String... attributes) {
+        return project(specification, JpaProjection.tuple(attributes));
+    }
+
+    /**
+     * Selects only the attributes of matching entities and maps each row either into the projection class,
+     * through its constructor taking the attributes in order, or into a proxy of the projection interface,
+     * whose getters return attributes they are named after. Attributes of an interface projection default
+     * to properties of its getters. No entity is instantiated or managed, so projections are cheap to stream
+     * from large tables.
+     *
+     * @param specification restriction of selected rows, or null to select all of them
+     * @param attributes    attribute names, nested ones separated by dots
+     */
+    public <P> Stream<P> get(JpaSpecification<T> specification, Class<P> projection, String... attributes) {
+        Objects.requireNonNull(projection, "Cannot project into null type");
+        return project(specification, JpaProjection.of(projection, attributes));
+    }
+
+    private <P> Stream<P> project(JpaSpecification<T> specification, JpaProjection<P> projection) {
+        final CriteriaQuery<Object[]> criteriaQuery = projection.query(entityManagerFactory.getCriteriaBuilder(),
+                entityClass, specification);
+        final Function<Object[], P> mapper = projection.mapper(criteriaQuery);
+
+        final JpaStatementAccounting.Call call = begin(Operation.FIND);
+
+        final long started = System.nanoTime();
+        final Stream<P> stream;
+        final EntityManager entityManager;
+        try {
+            entityManager = acquireEntityManager();
+        } catch (RuntimeException e) {
+            failed(Operation.FIND, started, call);
+            throw e;
+        }
+        try {
+            final TypedQuery<Object[]> query = entityManager.createQuery(criteriaQuery);
+            if (JpaCursors.isSupported(entityManager)) {
+                stream = JpaCursors.stream(entityManager, entityManager != sharedEntityManager, query, fetchSize,
+                        mapper, rows -> released(entityManager, call, rows));
+            } else {
+                final List<Object[]> rows = query.getResultList();
+                released(entityManager, call, rows.size());
+                stream = rows.stream().map(mapper);
+            }
+        } catch (RuntimeException e) {
+            releaseEntityManager(entityManager);
+            failed(Operation.FIND, started, call);
+            throw e;
+        }
+
+        if (call != null)
+            call.exit();
+        final RepositoryMetrics metrics = getMetrics();
+        return metrics != null ? metrics.stream(Operation.FIND, started, stream) : stream;
+    }
+
+    /**
+     * Retrieves a single page of matching entities without counting them.
+     *
+     * @param specification restriction of retrieved entities, or null to page through all of them
+     */
+    public JpaSlice<T> getSlice(JpaSpecification<T> specification, JpaPageRequest request) {
+        return slice(specification, request, false);
+    }
+
+    /**
+     * Retrieves a single page of matching entities along with their total amount, which costs an additional
+     * count query.
+     *
+     * @param specification restriction of retrieved entities, or null to page through all of them
+     */
+    public JpaPage<T> getPage(JpaSpecification<T> specification, JpaPageRequest request) {
+        return (JpaPage<T>) slice(specification, request, true);
+    }
+
+    private JpaSlice<T> slice(JpaSpecification<T> specification, JpaPageRequest request, boolean counted) {
+        Objects.requireNonNull(request, "Cannot retrieve page by null request");
+
+        final JpaStatementAccounting.Call call = begin(Operation.FIND);
+
+        final long started = System.nanoTime();
+        final JpaSlice<T> slice;
+        try {
+            slice = withEntityManager(entityManager -> slice(entityManager, specification, request, counted));
+        } catch (RuntimeException e) {
+            failed(Operation.FIND, started, call);
+            throw e;
+        }
+        recorded(Operation.FIND, started, call, slice.getContent().size());
+        return slice;
+    }
+
+    /**
+     * Fetches one row more than requested to find out whether a next page exists. Rows are ordered by id
+     * after the sort attributes, so pages are stable. Values of the sort attributes are selected along with
+     * entities, and keyset pages continue with a {@code (a > ?) or (a = ? and b > ?) ...} restriction over them.
+     */
+    @SuppressWarnings("unchecked")
+    private JpaSlice<T> slice(EntityManager entityManager, JpaSpecification<T> specification, JpaPageRequest request,
+                              boolean counted) {
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object[]> query = cb.createQuery(Object[].class);
+        final Root<T> root = query.from(entityClass);
+
+        final List<JpaSort.Order> orders = new ArrayList<>(request.getSort().getOrders());
+        final Optional<String> id = plan().idAttribute();
+        if (request.isKeyset() && !id.isPresent())
+            throw new IllegalArgumentException("Keyset pagination requires a single id attribute of " + entityClass.getName());
+        if (id.isPresent() && !request.getSort().isSortedBy(id.get()))
+            orders.add(JpaSort.asc(id.get()).getOrders().get(0));
+
+        final List<Path<?>> paths = new ArrayList<>(orders.size());
+        final List<Class<?>> types = new ArrayList<>(orders.size());
+        for (JpaSort.Order order : orders) {
+            final Path<?> path = JpaProjection.path(root, order.getAttribute());
+            if (request.isKeyset() && isOptional(path))
+                throw new IllegalArgumentException("Keyset attribute " + order.getAttribute() + " of "
+                        + entityClass.getName() + " is nullable");
+            paths.add(path);
+            types.add(path.getJavaType());
+        }
+
+        final List<Selection<?>> selections = new ArrayList<>();
+        selections.add(root);
+        selections.addAll(paths);
+        query.multiselect(selections);
+
+        final List<Predicate> restrictions = new ArrayList<>(2);
+        if (specification != null)
+            restrictions.add(specification.toPredicate(root, query, cb));
+        if (request.getContinuationToken() != null)
+            restrictions.add(after(cb, orders, paths, JpaPageRequest.values(request.getContinuationToken(), orders, types)));
+        query.where(restrictions.toArray(new Predicate[restrictions.size()]));
+
+        query.orderBy(IntStream.range(0, orders.size())
+                .mapToObj(i -> orders.get(i).isAscending() ? cb.asc(paths.get(i)) : cb.desc(paths.get(i)))
+                .collect(Collectors.toList()));
+
+        final TypedQuery<Object[]> typedQuery = entityManager.createQuery(query);
+        if (!request.isKeyset())
+            typedQuery.setFirstResult((int) request.getOffset());
+        typedQuery.setMaxResults((int) Math.min(request.getSize() + 1L, Integer.MAX_VALUE));
+
+        List<?> rows = fetch(typedQuery);
+        final boolean hasNext = rows.size() > request.getSize();
+        if (hasNext)
+            rows = rows.subList(0, request.getSize());
+
+        final List<T> content = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            final T entity = (T) (row instanceof Object[] ? ((Object[]) row)[0] : row);
+            entityManager.detach(entity);
+            content.add(entity);
+        }
+
+        String continuationToken = null;
+        if (request.isKeyset() && hasNext) {
+            final Object[] last = (Object[]) rows.get(rows.size() - 1);
+            continuationToken = JpaPageRequest.token(orders, Arrays.copyOfRange(last, 1, last.length), types);
+        }
+
+        if (!counted)
+            return new JpaSlice<>(content, request, hasNext, continuationToken);
+
+        final CriteriaQuery<Long> countQuery = cb.createQuery(Long.class);
+        final Root<T> countRoot = countQuery.from(entityClass);
+        countQuery.select(cb.count(countRoot));
+        if (specification != null)
+            countQuery.where(specification.toPredicate(countRoot, countQuery, cb));
+        final long total = entityManager.createQuery(countQuery).getSingleResult();
+
+        return new JpaPage<>(content, request, hasNext, continuationToken, total);
+    }
+
+    /**
+     * @return whether the attribute, or any attribute it is reached through, may be null
+     */
+    private static boolean isOptional(Path<?> path) {
+        for (Path<?> attribute = path; attribute.getParentPath() != null; attribute = attribute.getParentPath()) {
+            final Bindable<?> model = attribute.getModel();
+            if (model instanceof SingularAttribute && ((SingularAttribute<?, ?>) model).isOptional())
+                return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Predicate after(CriteriaBuilder cb, List<JpaSort.Order> orders, List<Path<?>> paths, Object[] values) {
+        final List<Predicate> alternatives = new ArrayList<>(orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            final List<Predicate> conjunction = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; j++)
+                conjunction.add(cb.equal(paths.get(j), values[j]));
+
+            final Expression<Comparable> path = (Expression<Comparable>) paths.get(i);
+            final Comparable value = (Comparable) values[i];
+            conjunction.add(orders.get(i).isAscending() ? cb.greaterThan(path, value) : cb.lessThan(path, value));
+            alternatives.add(cb.and(conjunction.toArray(new Predicate[conjunction.size()])));
+        }
+        return cb.or(alternatives.toArray(new Predicate[alternatives.size()]));
+    }
+
+    /**
+     * Translates specification with {@link JpaSpecifications#from(Specification)}, so it is compiled into
+     * a cached parameterized query and streamed like {@link #get(JpaSpecification)}.
+     */
+    @Override
+    public Stream<T> find(Specification<T> specification) {
+        Objects.requireNonNull(specification, "Cannot retrieve object by null specification");
+        return stream(Operation.FIND, JpaSpecifications.from(specification));
+    }
+
+    /**
+     * Streams entities lazily: with Hibernate a server-side cursor with {@link #getFetchSize()} is used,
+     * other providers fall back to keyset paging. Either way streamed entities are detached from
+     * persistence context as stream advances. Streams should be closed to release cursor early,
+     * fully consumed streams release it automatically.
+     */
+    private Stream<T> stream(Operation operation, JpaSpecification<T> specification) {
+        final JpaStatementAccounting.Call call = begin(operation);
+        final long started = System.nanoTime();
+        final Stream<T> stream;
+        final EntityManager entityManager;
+        try {
+            entityManager = acquireEntityManager();
+        } catch (RuntimeException e) {
+            failed(operation, started, call);
+            throw e;
+        }
+        try {
+            if (!JpaCursors.isSupported(entityManager)) {
+                // pages are accounted by the iterator as a call of their own
+                released(entityManager, call, 0);
+                stream = pages(specification);
+            } else {
+                stream = JpaCursors.stream(entityManager, entityManager != sharedEntityManager,
+                        query(entityManager, specification), fetchSize, rows -> released(entityManager, call, rows));
+            }
+        } catch (RuntimeException e) {
+            releaseEntityManager(entityManager);
+            failed(operation, started, call);
+            throw e;
+        }
+
+        if (call != null)
+            call.exit();
+        final RepositoryMetrics metrics = getMetrics();
+        return metrics != null ? metrics.stream(operation, started, stream) : stream;
+    }
+
+    /**
+     * Completes accounting of a stream once its rows have been fetched, which for cursors happens only when the
+     * stream is exhausted or closed.
+     */
+    private void released(EntityManager entityManager, JpaStatementAccounting.Call call, long rows) {
+        try {
+            releaseEntityManager(entityManager);
+        } finally {
+            accounted(call, rows);
+        }
+    }
+
+    /**
+     * Specifications built with {@link JpaSpecifications} are compiled into parameterized queries once per
+     * shape and kept in a LRU cache of {@link #getQueryCacheSize()} entries, other ones are built every time.
+     */
+    @SuppressWarnings("unchecked")
+    private TypedQuery<T> query(EntityManager entityManager, JpaSpecification<T> specification) {
+        if (queryCacheSize > 0 && JpaParameterizedSpecification.isParameterized(specification)) {
+            final JpaParameterizedSpecification<T> parameterized = (JpaParameterizedSpecification<T>) specification;
+
+            JpaParameterizedSpecification.Compiled<T> compiled;
+            synchronized (compiledQueries) {
+                compiled = compiledQueries.computeIfAbsent(parameterized.shape(),
+                        shape -> parameterized.compile(entityManagerFactory.getCriteriaBuilder(), entityClass));
+            }
+            return compiled.bind(entityManager, parameterized);
+        }
 
         CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
         CriteriaQuery<T> criteriaQuery = criteriaBuilder.createQuery(entityClass);
+        Root<T> root = criteriaQuery.from(entityClass);
+        criteriaQuery.select(root);
 
-        Root<T> rawRoot = criteriaQuery.from(entityClass);
-        Predicate predicate = specification.toPredicate(rawRoot, criteriaQuery, criteriaBuilder);
-        CriteriaQuery<T> root = criteriaQuery.where(predicate);
+        if (specification != null)
+            criteriaQuery.where(specification.toPredicate(root, criteriaQuery, criteriaBuilder));
 
-        return entityManager.createQuery(root).getResultList().stream();
+        return entityManager.createQuery(criteriaQuery);
+    }
+
+    @Override
+    Runnable writing() {
+        final JpaEntityCache<ID, T> entityCache = this.entityCache;
+        if (entityCache == null)
+            return super.writing();
+
+        entityCache.beginWrite();
+        return entityCache::endWrite;
+    }
+
+    @Override
+    void changed(T subject) {
+        final JpaEntityCache<ID, T> entityCache = this.entityCache;
+        if (entityCache != null) {
+            final Object id = identifier(subject);
+            if (id != null)
+                entityCache.invalidate(id);
+        }
+    }
+
+    @Override
+    void changedAll() {
+        final JpaEntityCache<ID, T> entityCache = this.entityCache;
+        if (entityCache != null)
+            entityCache.invalidateAll();
     }
 
     @Override
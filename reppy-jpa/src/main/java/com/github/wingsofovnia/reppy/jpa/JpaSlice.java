@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of query results, knowing whether more results follow but not how many.
+ */
+public class JpaSlice<T> {
+    private final List<T> content;
+    private final JpaPageRequest request;
+    private final boolean hasNext;
+    private final String continuationToken;
+
+    JpaSlice(List<T> content, JpaPageRequest request, boolean hasNext, String continuationToken) {
+        this.content = Collections.unmodifiableList(content);
+        this.request = request;
+        this.hasNext = hasNext;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public JpaPageRequest getRequest() {
+        return request;
+    }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return token to continue keyset pagination after this slice, or null if this is the last slice or
+     * it was requested by offset
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * @return request of the following page, or null if this is the last one
+     */
+    public JpaPageRequest nextPageRequest() {
+        return hasNext ? request.next(continuationToken) : null;
+    }
+}
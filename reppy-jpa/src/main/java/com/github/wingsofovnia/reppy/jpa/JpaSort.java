@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Ordering of query results by entity attributes, nested ones separated by dots.
+ */
+public final class JpaSort {
+    private static final JpaSort UNSORTED = new JpaSort(Collections.emptyList());
+
+    private final List<Order> orders;
+
+    private JpaSort(List<Order> orders) {
+        this.orders = Collections.unmodifiableList(orders);
+    }
+
+    public static JpaSort unsorted() {
+        return UNSORTED;
+    }
+
+    public static JpaSort asc(String... attributes) {
+        return UNSORTED.then(true, attributes);
+    }
+
+    public static JpaSort desc(String... attributes) {
+        return UNSORTED.then(false, attributes);
+    }
+
+    public JpaSort thenAsc(String... attributes) {
+        return then(true, attributes);
+    }
+
+    public JpaSort thenDesc(String... attributes) {
+        return then(false, attributes);
+    }
+
+    private JpaSort then(boolean ascending, String... attributes) {
+        final List<Order> orders = new ArrayList<>(this.orders);
+        for (String attribute : attributes)
+            orders.add(new Order(attribute, ascending));
+        return new JpaSort(orders);
+    }
+
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    public boolean isSorted() {
+        return !orders.isEmpty();
+    }
+
+    public boolean isSortedBy(String attribute) {
+        return orders.stream().anyMatch(order -> order.attribute.equals(attribute));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof JpaSort && orders.equals(((JpaSort) o).orders);
+    }
+
+    @Override
+    public int hashCode() {
+        return orders.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return orders.toString();
+    }
+
+    public static final class Order {
+        private final String attribute;
+        private final boolean ascending;
+
+        Order(String attribute, boolean ascending) {
+            if (attribute == null || attribute.isEmpty())
+                throw new IllegalArgumentException("Sort attribute must not be empty");
+            this.attribute = attribute;
+            this.ascending = ascending;
+        }
+
+        public String getAttribute() {
+            return attribute;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Order))
+                return false;
+            final Order order = (Order) o;
+            return ascending == order.ascending && attribute.equals(order.attribute);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(attribute, ascending);
+        }
+
+        @Override
+        public String toString() {
+            return attribute + (ascending ? " asc" : " desc");
+        }
+    }
+}
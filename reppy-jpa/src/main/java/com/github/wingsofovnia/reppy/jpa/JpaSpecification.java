@@ -27,6 +27,8 @@ public interface JpaSpecification<T> {
 
     default JpaSpecification<T> and(JpaSpecification<T> other) {
         Objects.requireNonNull(other, "Other specification must be not null");
+        if (JpaParameterizedSpecification.isParameterized(this, other))
+            return JpaParameterizedSpecification.and(this, other);
 
         return (root, query, builder) -> {
             Predicate otherPredicate = other.toPredicate(root, query, builder);
@@ -37,6 +39,8 @@ public interface JpaSpecification<T> {
 
     default JpaSpecification<T> or(JpaSpecification<T> other) {
         Objects.requireNonNull(other, "Other specification must be not null");
+        if (JpaParameterizedSpecification.isParameterized(this, other))
+            return JpaParameterizedSpecification.or(this, other);
 
         return new JpaSpecification<T>() {
             public Predicate toPredicate(Root<T> root, CriteriaQuery query, CriteriaBuilder builder) {
@@ -48,6 +52,9 @@ public interface JpaSpecification<T> {
     }
 
     default JpaSpecification<T> not() {
+        if (JpaParameterizedSpecification.isParameterized(this))
+            return JpaParameterizedSpecification.not(this);
+
         return new JpaSpecification<T>() {
             public Predicate toPredicate(Root<T> root, CriteriaQuery query, CriteriaBuilder builder) {
                 Predicate thisPredicate = JpaSpecification.this.toPredicate(root, query, builder);
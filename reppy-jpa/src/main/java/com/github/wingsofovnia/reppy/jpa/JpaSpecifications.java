@@ -16,7 +16,12 @@
 
 package com.github.wingsofovnia.reppy.jpa;
 
+import com.github.wingsofovnia.reppy.api.Specification;
+
 import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 public class JpaSpecifications<T> {
     private JpaSpecifications() {}
@@ -25,40 +30,122 @@ public class JpaSpecifications<T> {
         return new JpaSpecifications<>();
     }
 
+    /**
+     * Translates storage agnostic {@link Specification} into an equivalent parameterized {@link JpaSpecification}.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <E> JpaSpecification<E> from(Specification<E> specification) {
+        final JpaSpecifications<E> specifications = new JpaSpecifications<>();
+        final List<Specification<E>> operands = specification.getOperands();
+        final String key = specification.getAttribute();
+        final List<Object> values = specification.getValues();
+        final Object value = values.isEmpty() ? null : values.get(0);
+
+        switch (specification.getOperator()) {
+            case AND:
+                return from(operands.get(0)).and(from(operands.get(1)));
+            case OR:
+                return from(operands.get(0)).or(from(operands.get(1)));
+            case NOT:
+                return from(operands.get(0)).not();
+            case EQ:
+                return specifications.eq(key, value);
+            case NE:
+                return specifications.ne(key, value);
+            case LT:
+                return specifications.lt(key, (Comparable) value);
+            case LE:
+                return specifications.le(key, (Comparable) value);
+            case GT:
+                return specifications.gt(key, (Comparable) value);
+            case GE:
+                return specifications.ge(key, (Comparable) value);
+            case BETWEEN:
+                return specifications.between(key, (Comparable) value, (Comparable) values.get(1));
+            case IN:
+                if (values.isEmpty())
+                    return (root, query, cb) -> cb.disjunction();
+                return specifications.in(key, values);
+            case LIKE:
+                return specifications.like(key, (String) value);
+            default:
+                throw new IllegalArgumentException("Unsupported operator " + specification.getOperator());
+        }
+    }
+
 
+    /**
+     * @param value compared value, null tests for {@code IS NULL}
+     */
     public <Y> JpaSpecification<T> eq(String key, Y value) {
-        return (root, query, cb) -> cb.equal(root.get(key), value);
+        if (value == null)
+            return JpaParameterizedSpecification.of("isNull", key, (root, query, cb) -> cb.isNull(root.get(key)),
+                    (root, cb, parameters) -> cb.isNull(root.get(key)));
+        return JpaParameterizedSpecification.of("eq", key,
+                (root, query, cb) -> cb.equal(root.get(key), value),
+                (root, cb, parameters) -> cb.equal(root.get(key), parameters.value(value)), value);
     }
 
+    /**
+     * @param value compared value, null tests for {@code IS NOT NULL}
+     */
     public <Y> JpaSpecification<T> ne(String key, Y value) {
-        return (root, query, cb) -> cb.notEqual(root.get(key), value);
+        if (value == null)
+            return JpaParameterizedSpecification.of("isNotNull", key, (root, query, cb) -> cb.isNotNull(root.get(key)),
+                    (root, cb, parameters) -> cb.isNotNull(root.get(key)));
+        return JpaParameterizedSpecification.of("ne", key,
+                (root, query, cb) -> cb.notEqual(root.get(key), value),
+                (root, cb, parameters) -> cb.notEqual(root.get(key), parameters.value(value)), value);
     }
 
     public <Y extends Comparable<? super Y>> JpaSpecification<T> le(String key, Y value) {
-        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get(key), value);
+        return JpaParameterizedSpecification.of("le", key,
+                (root, query, cb) -> cb.lessThanOrEqualTo(root.get(key), value),
+                (root, cb, parameters) -> cb.lessThanOrEqualTo(root.<Y>get(key), parameters.value(value)), value);
     }
 
     public <Y extends Comparable<? super Y>> JpaSpecification<T> lt(String key, Y value) {
-        return (root, query, cb) -> cb.lessThan(root.get(key), value);
+        return JpaParameterizedSpecification.of("lt", key,
+                (root, query, cb) -> cb.lessThan(root.get(key), value),
+                (root, cb, parameters) -> cb.lessThan(root.<Y>get(key), parameters.value(value)), value);
     }
 
     public <Y extends Comparable<? super Y>> JpaSpecification<T> ge(String key, Y value) {
-        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get(key), value);
+        return JpaParameterizedSpecification.of("ge", key,
+                (root, query, cb) -> cb.greaterThanOrEqualTo(root.get(key), value),
+                (root, cb, parameters) -> cb.greaterThanOrEqualTo(root.<Y>get(key), parameters.value(value)), value);
     }
 
     public <Y extends Comparable<? super Y>> JpaSpecification<T> gt(String key, Y value) {
-        return (root, query, cb) -> cb.greaterThan(root.get(key), value);
+        return JpaParameterizedSpecification.of("gt", key,
+                (root, query, cb) -> cb.greaterThan(root.get(key), value),
+                (root, cb, parameters) -> cb.greaterThan(root.<Y>get(key), parameters.value(value)), value);
     }
 
     public <Y extends Comparable<? super Y>> JpaSpecification<T> between(String key, Y v1, Y v2) {
-        return (root, query, cb) -> cb.between(root.get(key), v1, v2);
+        return JpaParameterizedSpecification.of("between", key,
+                (root, query, cb) -> cb.between(root.get(key), v1, v2),
+                (root, cb, parameters) -> cb.between(root.<Y>get(key), parameters.value(v1), parameters.value(v2)),
+                v1, v2);
     }
 
+    /**
+     * @param values compared values, a null among them matches null attributes as {@code IS NULL} does
+     */
     public <Y> JpaSpecification<T> in(String key, Collection<Y> values) {
-        return (root, query, cb) -> root.get(key).in(values);
+        if (values.stream().anyMatch(Objects::isNull)) {
+            final List<Y> nonNull = values.stream().filter(Objects::nonNull).collect(Collectors.toList());
+            final JpaSpecification<T> isNull = eq(key, null);
+            return nonNull.isEmpty() ? isNull : in(key, nonNull).or(isNull);
+        }
+        return JpaParameterizedSpecification.of("in", key,
+                (root, query, cb) -> root.get(key).in(values),
+                (root, cb, parameters) -> root.get(key).in(parameters.collection(values)), values);
     }
 
     public JpaSpecification<T> like(String key, String pattern) {
-        return (root, query, cb) -> cb.like(root.get(key), pattern);
+        return JpaParameterizedSpecification.of("like", key,
+                (root, query, cb) -> cb.like(root.get(key), pattern),
+                (root, cb, parameters) -> cb.like(root.get(key), parameters.value(pattern)), pattern);
     }
 }
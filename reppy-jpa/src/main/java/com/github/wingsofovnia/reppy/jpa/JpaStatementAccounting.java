@@ -0,0 +1,307 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Attributes SQL statements, rows and time to the repository calls that caused them. Statements are counted
+ * by {@link JpaStatementInterceptor}, which has to be installed into the persistence unit, for calls of
+ * repositories this accounting is set to with {@link JpaRepository#setStatementAccounting(JpaStatementAccounting)}.
+ * Iterators are accounted as a single {@link Operation#ITERATE} call spanning all their page queries, and
+ * streams backed by a cursor as a single call completed with the rows returned once the stream is exhausted
+ * or closed.
+ * <p>
+ * A call issuing more statements than its budget is either logged once it completes, or, with
+ * {@link BudgetAction#FAIL}, aborted with {@link RepositoryException} before the statement over budget is
+ * executed, which rolls back its transaction.
+ */
+public class JpaStatementAccounting {
+    public static final int SAMPLED_STATEMENTS = 16;
+
+    private static final Logger LOGGER = Logger.getLogger(JpaStatementAccounting.class.getName());
+    private static final ThreadLocal<Call> CURRENT = new ThreadLocal<>();
+
+    public enum BudgetAction {
+        WARN, FAIL
+    }
+
+    private final Map<Operation, Totals> totals = new EnumMap<>(Operation.class);
+    private final Map<Operation, Integer> budgets = Collections.synchronizedMap(new EnumMap<>(Operation.class));
+    private final LongAdder overBudget = new LongAdder();
+    private volatile int statementBudget;
+    private volatile BudgetAction budgetAction = BudgetAction.WARN;
+    private volatile Consumer<Call> listener;
+
+    public JpaStatementAccounting() {
+        for (Operation operation : Operation.values())
+            totals.put(operation, new Totals());
+    }
+
+    /**
+     * Properties installing {@link JpaStatementInterceptor} into an {@code EntityManagerFactory} created by
+     * {@link javax.persistence.Persistence}.
+     */
+    public static Map<String, String> interceptorProperties() {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("hibernate.ejb.interceptor", JpaStatementInterceptor.class.getName());
+        return properties;
+    }
+
+    /**
+     * Counts the statement against every call in progress on the current thread.
+     */
+    public static void statementPrepared(String sql) {
+        for (Call call = CURRENT.get(); call != null; call = call.parent)
+            call.statementPrepared(sql);
+    }
+
+    /**
+     * Starts a call and makes it current on this thread until {@link Call#exit()}.
+     */
+    Call begin(Operation operation, Class<?> entityClass) {
+        final Call call = call(operation, entityClass);
+        call.enter();
+        return call;
+    }
+
+    /**
+     * Starts a call that is current only between {@link Call#enter()} and {@link Call#exit()}.
+     */
+    Call call(Operation operation, Class<?> entityClass) {
+        return new Call(this, operation, entityClass);
+    }
+
+    private void completed(Call call) {
+        final Totals total = totals.get(call.operation);
+        total.calls.increment();
+        total.statements.add(call.statements);
+        total.rows.add(call.rows);
+        total.nanos.add(call.nanos);
+
+        if (call.isOverBudget()) {
+            overBudget.increment();
+            if (budgetAction == BudgetAction.WARN && LOGGER.isLoggable(Level.WARNING))
+                LOGGER.warning(call.toString());
+        }
+
+        final Consumer<Call> listener = this.listener;
+        if (listener != null)
+            listener.accept(call);
+    }
+
+    public long getCalls(Operation operation) {
+        return totals.get(operation).calls.sum();
+    }
+
+    public long getStatements(Operation operation) {
+        return totals.get(operation).statements.sum();
+    }
+
+    public long getRows(Operation operation) {
+        return totals.get(operation).rows.sum();
+    }
+
+    public long getNanos(Operation operation) {
+        return totals.get(operation).nanos.sum();
+    }
+
+    public long getOverBudgetCalls() {
+        return overBudget.sum();
+    }
+
+    public void reset() {
+        totals.values().forEach(Totals::reset);
+        overBudget.reset();
+    }
+
+    public int getStatementBudget() {
+        return statementBudget;
+    }
+
+    /**
+     * @param statementBudget amount of statements a call may issue, 0 disables the budget
+     */
+    public void setStatementBudget(int statementBudget) {
+        if (statementBudget < 0)
+            throw new IllegalArgumentException("Statement budget must not be negative");
+        this.statementBudget = statementBudget;
+    }
+
+    public int getStatementBudget(Operation operation) {
+        final Integer budget = budgets.get(operation);
+        return budget != null ? budget : statementBudget;
+    }
+
+    /**
+     * Overrides {@link #getStatementBudget()} for calls of the operation.
+     */
+    public void setStatementBudget(Operation operation, int statementBudget) {
+        if (statementBudget < 0)
+            throw new IllegalArgumentException("Statement budget must not be negative");
+        budgets.put(operation, statementBudget);
+    }
+
+    public BudgetAction getBudgetAction() {
+        return budgetAction;
+    }
+
+    public void setBudgetAction(BudgetAction budgetAction) {
+        this.budgetAction = budgetAction == null ? BudgetAction.WARN : budgetAction;
+    }
+
+    public Consumer<Call> getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener receives every completed call, on the thread that completed it
+     */
+    public void setListener(Consumer<Call> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Statements, rows and time of a single repository call.
+     */
+    public static final class Call {
+        private final JpaStatementAccounting accounting;
+        private final Operation operation;
+        private final Class<?> entityClass;
+        private final int budget;
+        private final long started = System.nanoTime();
+        private final List<String> sampled = new ArrayList<>();
+
+        private Call parent;
+        private int statements;
+        private long rows;
+        private long nanos;
+        private boolean completed;
+
+        private Call(JpaStatementAccounting accounting, Operation operation, Class<?> entityClass) {
+            this.accounting = accounting;
+            this.operation = operation;
+            this.entityClass = entityClass;
+            this.budget = accounting.getStatementBudget(operation);
+        }
+
+        void enter() {
+            parent = CURRENT.get();
+            CURRENT.set(this);
+        }
+
+        void exit() {
+            if (CURRENT.get() == this)
+                CURRENT.set(parent);
+            parent = null;
+        }
+
+        void rows(long rows) {
+            this.rows += rows;
+        }
+
+        /**
+         * Exits the call, if still current, and reports it.
+         */
+        void complete() {
+            exit();
+            if (completed)
+                return;
+
+            completed = true;
+            nanos = System.nanoTime() - started;
+            accounting.completed(this);
+        }
+
+        private void statementPrepared(String sql) {
+            statements++;
+            if (sampled.size() < SAMPLED_STATEMENTS)
+                sampled.add(sql);
+
+            if (budget > 0 && statements > budget && accounting.budgetAction == BudgetAction.FAIL)
+                throw new RepositoryException(operation + " of " + entityClass.getName()
+                        + " exceeded statement budget of " + budget + " with: " + sql);
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public Class<?> getEntityClass() {
+            return entityClass;
+        }
+
+        public int getStatements() {
+            return statements;
+        }
+
+        /**
+         * @return rows fetched or affected as reported by the repository
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return first {@value #SAMPLED_STATEMENTS} statements of the call
+         */
+        public List<String> getSampledStatements() {
+            return Collections.unmodifiableList(sampled);
+        }
+
+        public boolean isOverBudget() {
+            return budget > 0 && statements > budget;
+        }
+
+        @Override
+        public String toString() {
+            return operation + " of " + entityClass.getName() + " issued " + statements + " statements"
+                    + (budget > 0 ? " (budget " + budget + ")" : "") + ", " + rows + " rows in "
+                    + nanos / 1000 + "us, first: " + sampled;
+        }
+    }
+
+    private static class Totals {
+        final LongAdder calls = new LongAdder();
+        final LongAdder statements = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        void reset() {
+            calls.reset();
+            statements.reset();
+            rows.reset();
+            nanos.reset();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.jpa;
+
+import org.hibernate.EmptyInterceptor;
+
+/**
+ * Hibernate {@link org.hibernate.Interceptor} feeding prepared statements to {@link JpaStatementAccounting}.
+ * It is stateless and can be set on a {@code Configuration} or named in the {@code hibernate.ejb.interceptor}
+ * property (see {@link JpaStatementAccounting#interceptorProperties()}). Applications having their own
+ * interceptor can extend this one or call {@link JpaStatementAccounting#statementPrepared(String)} instead.
+ */
+public class JpaStatementInterceptor extends EmptyInterceptor {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        JpaStatementAccounting.statementPrepared(sql);
+        return super.onPrepareStatement(sql);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.jpa.JpaAsyncSequenceRepository;
+import com.github.wingsofovnia.reppy.jpa.JpaPageRequest;
+import com.github.wingsofovnia.reppy.jpa.JpaSort;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class JpaAsyncRepositoryTest extends JpaTest {
+    private static EntityManagerFactory entityManagerFactory;
+    private static JpaAsyncSequenceRepository<Entity, Integer> repository;
+
+    @BeforeClass
+    public static void initEntityManagerFactory() {
+        entityManagerFactory = buildEntityManagerFactory();
+    }
+
+    @Before
+    public void initJpaRepository() {
+        repository = new JpaAsyncSequenceRepository<>(entityManagerFactory, Entity.class);
+    }
+
+    @After
+    public void destroyJpaRepository() {
+        repository.clear().join();
+    }
+
+    @Test
+    public void jpaAsyncRepositoryTest() {
+        List<Entity> entityCollection = new ArrayList<>();
+        for (int i = 1; i <= 10; i++)
+            entityCollection.add(new Entity(i));
+
+        repository.addAll(entityCollection).join();
+        assertEquals(Long.valueOf(10), repository.size().join());
+
+        List<CompletableFuture<Optional<Entity>>> lookups = IntStream.rangeClosed(1, 10)
+                .mapToObj(repository::get)
+                .collect(Collectors.toList());
+        List<Entity> found = lookups.stream()
+                .map(CompletableFuture::join)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+        assertEquals(entityCollection, found);
+
+        assertTrue(repository.containsAll(entityCollection).join());
+        List<Entity> all = new ArrayList<>();
+        assertEquals(Long.valueOf(10), repository.forEach(all::add).join());
+        assertEquals(entityCollection, all);
+        assertEquals(entityCollection.subList(0, 3),
+                repository.getSlice(null, JpaPageRequest.first(3, JpaSort.asc("x"))).join().getContent());
+
+        repository.remove(1).join();
+        assertFalse(repository.contains(new Entity(1)).join());
+        assertEquals(Integer.valueOf(9), repository.removeAll(entityCollection).join());
+        assertTrue(repository.isEmpty().join());
+    }
+}
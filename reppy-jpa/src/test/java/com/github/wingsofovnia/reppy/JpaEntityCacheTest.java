@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.jpa.JpaEntityCache;
+import com.github.wingsofovnia.reppy.jpa.JpaEntityCache.Eviction;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JpaEntityCacheTest {
+
+    @Test
+    public void lruEvictionTest() {
+        JpaEntityCache<Integer, String> cache = new JpaEntityCache<>(2, Eviction.LRU);
+        cache.put(1, "1");
+        cache.put(2, "2");
+        cache.getIfPresent(1);
+        cache.put(3, "3");
+
+        assertEquals("1", cache.getIfPresent(1));
+        assertNull(cache.getIfPresent(2));
+        assertEquals("3", cache.getIfPresent(3));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void tinyLfuKeepsFrequentEntriesTest() {
+        JpaEntityCache<Integer, Integer> cache = new JpaEntityCache<>(100, Eviction.W_TINY_LFU);
+        for (int i = 0; i < 50; i++) {
+            for (int hot = 0; hot < 50; hot++)
+                cache.get(hot, k -> k);
+        }
+
+        for (int cold = 1000; cold < 5000; cold++) {
+            cache.get(cold, k -> k);
+            cache.get(cold % 50, k -> k);
+        }
+
+        long hotCached = 0;
+        for (int hot = 0; hot < 50; hot++)
+            if (cache.getIfPresent(hot) != null)
+                hotCached++;
+
+        assertEquals("Scan must not flush frequently used entries", 50, hotCached);
+        assertTrue(cache.size() <= 100);
+    }
+
+    @Test
+    public void invalidatedLoadIsNotCachedTest() {
+        JpaEntityCache<Integer, String> cache = new JpaEntityCache<>(10, Eviction.LRU);
+        assertEquals("stale", cache.get(1, k -> {
+            cache.invalidate(k);
+            return "stale";
+        }));
+        assertNull(cache.getIfPresent(1));
+
+        assertEquals("fresh", cache.get(1, k -> "fresh"));
+        assertEquals("fresh", cache.getIfPresent(1));
+    }
+
+    @Test
+    public void expirationTest() throws InterruptedException {
+        JpaEntityCache<Integer, String> cache = new JpaEntityCache<>(10, 20, TimeUnit.MILLISECONDS, Eviction.LRU);
+        cache.put(1, "1");
+        assertEquals("1", cache.getIfPresent(1));
+
+        Thread.sleep(40);
+        assertNull(cache.getIfPresent(1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
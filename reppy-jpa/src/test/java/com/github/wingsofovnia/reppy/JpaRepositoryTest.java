@@ -1,10 +1,16 @@
 package com.github.wingsofovnia.reppy;
 
+import com.github.wingsofovnia.reppy.WriteBehindRepository;
+import com.github.wingsofovnia.reppy.api.RepositoryException;
 import com.github.wingsofovnia.reppy.jpa.JpaRepository;
+import com.github.wingsofovnia.reppy.jpa.JpaStatementAccounting;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.jpa.internal.EntityManagerFactoryImpl;
 import org.hibernate.service.ServiceRegistry;
+import org.hibernate.stat.Statistics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -13,10 +19,20 @@ import org.junit.Test;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Id;
 import javax.persistence.spi.PersistenceUnitTransactionType;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.logging.Level;
 
 import static org.junit.Assert.*;
@@ -91,6 +107,25 @@ public class JpaRepositoryTest extends JpaTest {
         assertEquals(3, repository.size());
     }
 
+    @Test
+    public void jpaRepositoryBatchedAddTest() {
+        Entity managed = new Entity(100);
+        repository.add(managed);
+
+        List<Entity> entityCollection = new ArrayList<>();
+        for (int i = 1; i <= 7; i++)
+            entityCollection.add(new Entity(i));
+
+        repository.setBatchSize(2);
+        repository.setCommitInterval(2);
+        repository.addAll(entityCollection);
+
+        assertEquals(8, repository.size());
+        assertFalse("Flushed batches must be cleared", repository.getEntityManager().contains(entityCollection.get(0)));
+        assertTrue("Entities of caller must stay managed", repository.getEntityManager().contains(managed));
+        assertTrue(repository.containsAll(entityCollection));
+    }
+
     @Test
     public void jpaRepositoryRemoveTest() {
         repository.add(new Entity(1));
@@ -113,10 +148,27 @@ public class JpaRepositoryTest extends JpaTest {
         repository.addAll(removable);
         assertEquals(3, repository.size());
 
-        repository.removeAll(removable);
+        assertEquals(3, repository.removeAll(removable));
         assertEquals(0, repository.size());
     }
 
+    @Test
+    public void jpaRepositoryBulkRemoveAllTest() {
+        List<Entity> removable = new ArrayList<>();
+        for (int i = 1; i <= 1200; i++)
+            removable.add(new Entity(i));
+        repository.setBatchSize(100);
+        repository.addAll(removable);
+        repository.add(new Entity(1201));
+
+        List<Entity> detachedCopies = new ArrayList<>();
+        for (int i = 1; i <= 1250; i++)
+            detachedCopies.add(new Entity(i));
+
+        assertEquals(1201, repository.removeAll(detachedCopies));
+        assertTrue(repository.isEmpty());
+    }
+
     @Test
     public void jpaRepositoryContainsTest() {
         Entity entityToCheck = new Entity(2, "12");
@@ -133,6 +185,52 @@ public class JpaRepositoryTest extends JpaTest {
         assertFalse(repository.contains(entityToCheckWithNull));
     }
 
+    @Test
+    public void jpaRepositoryContainsExistenceTest() {
+        repository.addAll(Arrays.asList(new Entity(1, "a"), new Entity(2)));
+
+        Entity anything = new Entity(0);
+        anything.setX(null);
+        Entity a = new Entity(0, "a");
+        a.setX(null);
+        assertTrue(repository.contains(anything));
+        assertTrue(repository.contains(a));
+        assertTrue(repository.contains(new Entity(2, null)));
+        assertFalse(repository.contains(new Entity(2, "a")));
+
+        a.setS("b");
+        assertFalse(repository.contains(a));
+
+        repository.clear();
+        assertFalse(repository.contains(anything));
+    }
+
+    @Test
+    public void jpaRepositoryPlanPerMetamodelTest() {
+        repository.add(new Entity(1, "a"));
+        assertTrue(repository.contains(new Entity(1, "a")));
+
+        String mapping = "<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE hibernate-mapping PUBLIC \"-//Hibernate/Hibernate Mapping DTD 3.0//EN\" "
+                + "\"http://www.hibernate.org/dtd/hibernate-mapping-3.0.dtd\">\n"
+                + "<hibernate-mapping default-access=\"field\">\n"
+                + "  <class name=\"" + Entity.class.getName() + "\" table=\"ID_ONLY_ENTITY\">\n"
+                + "    <id name=\"x\"/>\n"
+                + "  </class>\n"
+                + "</hibernate-mapping>";
+        EntityManagerFactory idOnly = buildEntityManagerFactory(configuration ->
+                configuration.addInputStream(new ByteArrayInputStream(mapping.getBytes(StandardCharsets.UTF_8))));
+        try {
+            JpaRepository<Entity> other = new JpaRepository<>(idOnly, Entity.class);
+            other.add(new Entity(1, "ignored"));
+            assertTrue(other.contains(new Entity(1, "differs")));
+            assertFalse(other.contains(new Entity(2)));
+            other.clear();
+        } finally {
+            idOnly.close();
+        }
+    }
+
     @Test
     public void jpaRepositoryContainsAllTest() {
         Collection<Entity> toCheckOnAvailability = new ArrayList<Entity>() {{
@@ -146,6 +244,79 @@ public class JpaRepositoryTest extends JpaTest {
         assertTrue(repository.containsAll(toCheckOnAvailability));
     }
 
+    @Test
+    public void jpaRepositoryContainsAllChunkedTest() {
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 1; i <= 1100; i++)
+            entities.add(new Entity(i, String.valueOf(i)));
+        repository.setBatchSize(100);
+        repository.addAll(entities);
+
+        List<Entity> copies = new ArrayList<>();
+        for (int i = 1; i <= 1100; i++)
+            copies.add(new Entity(i, String.valueOf(i)));
+        assertTrue(repository.containsAll(copies));
+
+        Entity bySignature = new Entity(0, "1099");
+        bySignature.setX(null);
+        assertTrue(repository.containsAll(Arrays.asList(bySignature, new Entity(7))));
+
+        copies.set(1050, new Entity(1051, "other"));
+        assertFalse(repository.containsAll(copies));
+        assertFalse(repository.containsAll(Arrays.asList(new Entity(1), new Entity(1101))));
+    }
+
+    @Test
+    public void jpaRepositoryContainsAllAnonymousTest() {
+        Entity anything = new Entity(0);
+        anything.setX(null);
+        assertFalse(repository.containsAll(Arrays.asList(anything)));
+
+        repository.addAll(Arrays.asList(new Entity(1, "a"), new Entity(2, "b")));
+        assertTrue(repository.containsAll(Arrays.asList(anything, anything)));
+
+        Entity a = new Entity(0, "a");
+        a.setX(null);
+        Entity c = new Entity(0, "c");
+        c.setX(null);
+        assertTrue(repository.containsAll(Arrays.asList(a, new Entity(2, "b"))));
+        assertFalse(repository.containsAll(Arrays.asList(a, c)));
+        assertFalse(repository.containsAll(Arrays.asList(new Entity(1, "b"))));
+    }
+
+    @Test
+    public void jpaRepositoryContainsAllAnonymousBatchedTest() {
+        List<Entity> entities = new ArrayList<>();
+        List<Entity> anonymous = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            entities.add(new Entity(i, "s" + i));
+            Entity copy = new Entity(0, "s" + i);
+            copy.setX(null);
+            anonymous.add(copy);
+        }
+        repository.addAll(entities);
+
+        JpaStatementAccounting accounting = new JpaStatementAccounting();
+        List<JpaStatementAccounting.Call> calls = new ArrayList<>();
+        accounting.setListener(calls::add);
+        repository.setStatementAccounting(accounting);
+        try {
+            assertTrue(repository.containsAll(anonymous));
+            assertEquals(1, accounting.getStatements(Operation.CONTAINS_ALL));
+
+            assertTrue(repository.containsAll(entities));
+            assertEquals(2, accounting.getStatements(Operation.CONTAINS_ALL));
+            calls.forEach(call -> call.getSampledStatements().forEach(sql -> assertFalse(sql.contains("'s1'"))));
+
+            Entity missing = new Entity(0, "missing");
+            missing.setX(null);
+            anonymous.add(missing);
+            assertFalse(repository.containsAll(anonymous));
+        } finally {
+            repository.setStatementAccounting(null);
+        }
+    }
+
     @Test(expected = java.util.ConcurrentModificationException.class)
     public void jpnRepositoryIteratorConcurrentModificationTest() {
         Collection<Entity> entityCollection = new ArrayList<Entity>() {{
@@ -188,4 +359,292 @@ public class JpaRepositoryTest extends JpaTest {
         }
         assertEquals(entityCollection.size(), i);
     }
+
+    @Test
+    public void jpnRepositoryKeysetIteratorTest() {
+        List<Entity> entityCollection = new ArrayList<>();
+        for (int i = 1; i <= 11; i++)
+            entityCollection.add(new Entity(i));
+        repository.addAll(entityCollection);
+        repository.setPageSize(4);
+
+        Iterator<Entity> iterator = repository.iterator();
+        for (Entity expected : entityCollection) {
+            assertTrue(iterator.hasNext());
+            assertEquals(expected, iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+
+        assertFalse("Consumed pages must be detached", repository.getEntityManager().contains(entityCollection.get(0)));
+    }
+
+    @Test
+    public void jpnRepositoryParallelStreamTest() {
+        List<Entity> entityCollection = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++)
+            entityCollection.add(new Entity(i, String.valueOf(i)));
+        repository.setBatchSize(100);
+        repository.addAll(entityCollection);
+        repository.setPageSize(25);
+
+        Spliterator<Entity> spliterator = repository.spliterator();
+        Spliterator<Entity> prefix = spliterator.trySplit();
+        assertNotNull("Integral id range must be splittable", prefix);
+        assertEquals(1000, prefix.estimateSize() + spliterator.estimateSize());
+
+        assertEquals(entityCollection, repository.stream().parallel().collect(Collectors.toList()));
+        assertEquals(500500L, repository.stream().parallel().mapToLong(Entity::getX).sum());
+    }
+
+    @Test
+    public void jpnRepositoryParallelStreamMinimalIdTest() {
+        List<Entity> entityCollection = new ArrayList<>();
+        entityCollection.add(new Entity(Integer.MIN_VALUE));
+        for (int i = 1; i <= 100; i++)
+            entityCollection.add(new Entity(i));
+        repository.addAll(entityCollection);
+        repository.setPageSize(10);
+
+        assertEquals(entityCollection, repository.stream().parallel().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void jpaRepositoryFactoryBackedConcurrencyTest() throws Exception {
+        JpaRepository<Entity> shared = new JpaRepository<>(entityManagerFactory, Entity.class);
+        assertNull(shared.getEntityManager());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        Entity entity = new Entity(thread * 100 + i);
+                        shared.add(entity);
+                        assertTrue(shared.contains(entity));
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(200, shared.size());
+        assertEquals(200, shared.stream().count());
+        shared.clear();
+        assertTrue(shared.isEmpty());
+    }
+
+    @Test
+    public void jpaRepositoryFactoryBackedAbandonedIteratorTest() {
+        EntityManagerFactory counted = buildEntityManagerFactory(configuration -> {
+            configuration.addAnnotatedClass(Entity.class);
+            configuration.setProperty("hibernate.generate_statistics", "true");
+        });
+        try {
+            JpaRepository<Entity> shared = new JpaRepository<>(counted, Entity.class);
+            shared.setPageSize(10);
+            for (int i = 0; i < 25; i++)
+                shared.add(new Entity(i));
+
+            Iterator<Entity> iterator = shared.iterator();
+            for (int i = 0; i < 15; i++)
+                iterator.next();
+
+            Statistics statistics = ((EntityManagerFactoryImpl) counted).getSessionFactory().getStatistics();
+            assertEquals(statistics.getSessionOpenCount(), statistics.getSessionCloseCount());
+            shared.clear();
+        } finally {
+            counted.close();
+        }
+    }
+
+    @Test
+    public void jpaRepositoryWriteBehindBatchTest() {
+        Entity replaced = new Entity(1, "old");
+        repository.addAll(Arrays.asList(replaced, new Entity(2), new Entity(3)));
+
+        WriteBehindRepository<Entity> writeBehind = new WriteBehindRepository<>(repository, 100);
+        writeBehind.remove(replaced);
+        writeBehind.add(new Entity(1, "new"));
+        writeBehind.remove(new Entity(2));
+        writeBehind.add(new Entity(4));
+        writeBehind.flush();
+        assertTrue(repository.contains(new Entity(1, "new")));
+        assertFalse(repository.contains(new Entity(2)));
+        assertEquals(3, repository.size());
+
+        writeBehind.remove(new Entity(3));
+        writeBehind.add(new Entity(4, "duplicate"));
+        try {
+            writeBehind.flush();
+            fail();
+        } catch (RepositoryException e) {
+            assertEquals(1, writeBehind.getFailedFlushCount());
+        }
+        assertTrue("Failed batch must be rolled back as a whole", repository.contains(new Entity(3)));
+        assertEquals(3, repository.size());
+    }
+
+    @Test
+    public void jpaRepositoryFactoryBackedFailFastTest() {
+        JpaRepository<Entity> shared = new JpaRepository<>(entityManagerFactory, Entity.class);
+        assertFalse(shared.isFailFast());
+        assertTrue(repository.isFailFast());
+        shared.setPageSize(1);
+        shared.addAll(Arrays.asList(new Entity(1), new Entity(2), new Entity(3)));
+
+        Iterator<Entity> lenient = shared.iterator();
+        shared.add(new Entity(4));
+        assertEquals(Integer.valueOf(1), lenient.next().getX());
+
+        try (Stream<Entity> stream = shared.stream()) {
+            Iterator<Entity> partial = stream.iterator();
+            partial.next();
+            shared.remove(new Entity(4));
+            assertEquals(Integer.valueOf(2), partial.next().getX());
+        }
+
+        shared.setFailFast(true);
+        Iterator<Entity> failFast = shared.iterator();
+        shared.add(new Entity(4));
+        try {
+            failFast.next();
+            fail();
+        } catch (java.util.ConcurrentModificationException expected) {
+        } finally {
+            shared.clear();
+        }
+    }
+
+    @Test
+    public void jpaRepositoryMetricsTest() {
+        RepositoryMetrics metrics = new RepositoryMetrics(Entity.class, "JpaRepository");
+        repository.setMetrics(metrics);
+        repository.setPageSize(10);
+
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 25; i++)
+            entities.add(new Entity(i));
+        repository.addAll(entities);
+        assertEquals(25, repository.stream().count());
+        assertTrue(repository.contains(entities.get(0)));
+        repository.clear();
+
+        assertEquals(1, metrics.get(Operation.ADD_ALL).getCalls());
+        assertEquals(25, metrics.get(Operation.ADD_ALL).getRows());
+        assertEquals(3, metrics.get(Operation.FETCH).getCalls());
+        assertEquals(25, metrics.get(Operation.FETCH).getRows());
+        assertEquals(1, metrics.get(Operation.CONTAINS).getRows());
+        assertEquals(25, metrics.get(Operation.CLEAR).getRows());
+        assertTrue(metrics.get(Operation.ADD_ALL).getLatency().getMax() > 0);
+        repository.setMetrics(null);
+    }
+
+    @Test
+    public void jpaRepositoryStatementAccountingTest() {
+        JpaStatementAccounting accounting = new JpaStatementAccounting();
+        List<JpaStatementAccounting.Call> calls = new ArrayList<>();
+        accounting.setListener(calls::add);
+        repository.setStatementAccounting(accounting);
+        repository.setPageSize(10);
+
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 25; i++)
+            entities.add(new Entity(i));
+        repository.addAll(entities);
+        assertTrue(repository.contains(entities.get(0)));
+        assertEquals(25, repository.stream().count());
+
+        assertEquals(1, accounting.getStatements(Operation.CONTAINS));
+        assertEquals(1, accounting.getCalls(Operation.ITERATE));
+        assertEquals(3, accounting.getStatements(Operation.ITERATE));
+        assertEquals(25, accounting.getRows(Operation.ITERATE));
+        assertEquals(25, accounting.getRows(Operation.ADD_ALL));
+        assertEquals(Operation.ADD_ALL, calls.get(0).getOperation());
+        assertFalse(calls.get(0).getSampledStatements().isEmpty());
+
+        accounting.setStatementBudget(Operation.ITERATE, 2);
+        assertEquals(25, repository.stream().count());
+        assertEquals(1, accounting.getOverBudgetCalls());
+
+        accounting.setBudgetAction(JpaStatementAccounting.BudgetAction.FAIL);
+        try {
+            repository.stream().count();
+            fail();
+        } catch (RepositoryException e) {
+            assertTrue(e.getMessage().contains("statement budget of 2"));
+        }
+        repository.setStatementAccounting(null);
+    }
+
+    @Test
+    public void jpaRepositoryCountCacheTest() {
+        JpaStatementAccounting accounting = new JpaStatementAccounting();
+        repository.setStatementAccounting(accounting);
+        repository.setCountCacheTtl(1, TimeUnit.MINUTES);
+
+        assertTrue(repository.isEmpty());
+        assertEquals(1, accounting.getStatements(Operation.IS_EMPTY));
+
+        repository.addAll(Arrays.asList(new Entity(1), new Entity(2), new Entity(3)));
+        assertEquals(3, repository.size());
+        repository.add(new Entity(4));
+        repository.remove(new Entity(1));
+        assertEquals(3, repository.size());
+        assertFalse(repository.isEmpty());
+        assertEquals(1, accounting.getStatements(Operation.SIZE));
+        assertEquals(1, accounting.getStatements(Operation.IS_EMPTY));
+        assertEquals(3, repository.spliterator().estimateSize());
+
+        JpaRepository<Entity> other = new JpaRepository<>(entityManagerFactory, Entity.class);
+        other.add(new Entity(5));
+        assertEquals(3, repository.size());
+
+        repository.setCountCacheTtl(0, TimeUnit.MINUTES);
+        assertEquals(4, repository.size());
+        assertEquals(2, accounting.getStatements(Operation.SIZE));
+        assertEquals(4, repository.stream().count());
+        assertEquals(2, accounting.getStatements(Operation.SIZE));
+        repository.setStatementAccounting(null);
+    }
+
+    @Test
+    public void jpaRepositoryPartiallyCommittedAddTest() {
+        repository.add(new Entity(0));
+        Iterator<Entity> iterator = repository.iterator();
+        repository.setBatchSize(2);
+        repository.setCommitInterval(1);
+        try {
+            repository.addAll(Arrays.asList(new Entity(1), new Entity(2), new Entity(3), new Entity(0)));
+            fail();
+        } catch (RepositoryException expected) {
+        }
+        assertEquals(3, repository.size());
+
+        try {
+            iterator.next();
+            fail();
+        } catch (java.util.ConcurrentModificationException expected) {
+        }
+    }
+
+    @Test
+    public void jpaRepositoryCountCacheMissingRemovalTest() {
+        repository.setCountCacheTtl(1, TimeUnit.MINUTES);
+        repository.addAll(Arrays.asList(new Entity(1), new Entity(2)));
+        assertEquals(2, repository.size());
+
+        repository.remove(new Entity(99));
+        assertEquals(0, repository.removeAll(Arrays.asList(new Entity(98), new Entity(99))));
+        assertEquals(2, repository.size());
+        assertEquals(2, repository.stream().count());
+
+        repository.remove(new Entity(1));
+        assertEquals(1, repository.size());
+        repository.setCountCacheTtl(0, TimeUnit.MINUTES);
+    }
 }
@@ -16,13 +16,22 @@
 
 package com.github.wingsofovnia.reppy;
 
+import com.github.wingsofovnia.reppy.api.Specification;
+import com.github.wingsofovnia.reppy.api.Specifications;
 import com.github.wingsofovnia.reppy.jpa.*;
+import com.github.wingsofovnia.reppy.metrics.RepositoryMetrics.Operation;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import javax.persistence.Column;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.Id;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.Tuple;
+import java.sql.Timestamp;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -96,4 +105,348 @@ public class JpaSequenceRepositoryTest extends JpaTest {
         JpaSpecification<Entity> eq1nTest = eq1.and(eqTest);
         assertEquals(entityCollection.get(0), repository.get(eq1nTest).findFirst().get());
     }
+
+    @Test
+    public void jpaSRepositoryStreamingTest() {
+        List<Entity> entityCollection = new ArrayList<>();
+        for (int i = 1; i <= 20; i++)
+            entityCollection.add(new Entity(i, i % 2 == 0 ? "even" : "odd"));
+        repository.addAll(entityCollection);
+        repository.getEntityManager().clear();
+        repository.setFetchSize(3);
+
+        try (Stream<Entity> all = repository.getAll()) {
+            assertEquals(entityCollection, all.collect(Collectors.toList()));
+        }
+
+        try (Stream<Entity> even = repository.get(JpaSpecifications.of(Entity.class).eq("s", "even"))) {
+            Iterator<Entity> iterator = even.iterator();
+            Entity first = iterator.next();
+            assertEquals(entityCollection.get(1), first);
+            assertEquals(entityCollection.get(3), iterator.next());
+            assertFalse("Passed entities must be evicted", repository.getEntityManager().contains(first));
+        }
+    }
+
+    @Test
+    public void jpaSRepositoryCompiledSpecTest() {
+        List<Entity> entityCollection = new ArrayList<>();
+        for (int i = 1; i <= 10; i++)
+            entityCollection.add(new Entity(i, "s" + i));
+        repository.addAll(entityCollection);
+
+        JpaSpecifications<Entity> specs = JpaSpecifications.of(Entity.class);
+        for (int i = 1; i <= 8; i++) {
+            JpaSpecification<Entity> spec = specs.between("x", i, i + 2).and(specs.ne("s", "s" + (i + 1)))
+                    .or(specs.in("x", Arrays.asList(i + 5, i + 6)).not().not());
+
+            final int lo = i;
+            List<Entity> expected = entityCollection.stream()
+                    .filter(e -> (e.getX() >= lo && e.getX() <= lo + 2 && !e.getS().equals("s" + (lo + 1)))
+                            || e.getX() == lo + 5 || e.getX() == lo + 6)
+                    .collect(Collectors.toList());
+
+            assertEquals(expected, repository.get(spec).collect(Collectors.toList()));
+        }
+
+        assertEquals(entityCollection.subList(0, 1), repository.get(specs.like("s", "s1").and(specs.lt("x", 5)))
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void jpaSRepositoryEntityCacheTest() {
+        JpaEntityCache<Integer, Entity> cache = new JpaEntityCache<>(100, JpaEntityCache.Eviction.W_TINY_LFU);
+        repository.setEntityCache(cache);
+
+        Entity entity = new Entity(1, "cached");
+        repository.add(entity);
+        repository.add(new Entity(2));
+
+        assertEquals(entity, repository.get(1).get());
+        assertEquals(entity, repository.get(1).get());
+        assertEquals(1, cache.getHitCount());
+
+        repository.remove(1);
+        assertFalse(repository.get(1).isPresent());
+
+        repository.get(2);
+        assertEquals(1, cache.size());
+        repository.clear();
+        assertEquals(0, cache.size());
+        assertFalse(repository.get(2).isPresent());
+    }
+
+    @Test
+    public void jpaSRepositoryNeutralSpecTest() {
+        List<Entity> entityCollection = new ArrayList<Entity>() {{
+            add(new Entity(1, "test"));
+            add(new Entity(2, "text"));
+            add(new Entity(3));
+            add(new Entity(4, "tent"));
+        }};
+        repository.addAll(entityCollection);
+
+        Specifications<Entity> specifications = Specifications.of(Entity.class);
+        Specification<Entity> specification = specifications.like("s", "te_t")
+                .and(specifications.in("x", Arrays.asList(1, 2, 3)).or(specifications.ge("x", 4)))
+                .and(specifications.ne("s", "text"));
+
+        Set<Integer> inMemory = entityCollection.stream().filter(specification.toPredicate())
+                .map(Entity::getX).collect(Collectors.toSet());
+        Set<Integer> translated;
+        try (Stream<Entity> found = repository.find(specification)) {
+            translated = found.map(Entity::getX).collect(Collectors.toSet());
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 4)), inMemory);
+        assertEquals(inMemory, translated);
+        assertEquals(inMemory, JCFRepositories.from(entityCollection).find(specification)
+                .map(Entity::getX).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void jpaSRepositoryNullSemanticsTest() {
+        List<Entity> entityCollection = Arrays.asList(new Entity(1, "a"), new Entity(2, "b"), new Entity(3),
+                new Entity(4, "ab"));
+        repository.addAll(entityCollection);
+
+        Specifications<Entity> specs = Specifications.of(Entity.class);
+        List<Specification<Entity>> specifications = Arrays.asList(
+                specs.eq("s", null), specs.ne("s", null), specs.eq("s", null).not(),
+                specs.eq("s", "a").not(), specs.ne("s", "a"), specs.lt("s", "b").not(),
+                specs.like("s", "a%").not(), specs.between("s", "a", "ab").not(),
+                specs.in("s", Arrays.asList("a", null)), specs.in("s", Arrays.asList("a", null)).not(),
+                specs.in("s", Arrays.asList("a")).not(), specs.eq("s", "a").or(specs.eq("s", "a").not()),
+                specs.ge("x", 2).and(specs.ne("s", "b")).not(), specs.eq("s", "b").or(specs.gt("x", 2)));
+
+        for (Specification<Entity> specification : specifications) {
+            Set<Integer> inMemory = entityCollection.stream().filter(specification.toPredicate())
+                    .map(Entity::getX).collect(Collectors.toSet());
+            Set<Integer> translated;
+            try (Stream<Entity> found = repository.find(specification)) {
+                translated = found.map(Entity::getX).collect(Collectors.toSet());
+            }
+            assertEquals(specification.toString(), translated, inMemory);
+            assertEquals(specification.toString(), inMemory, JCFRepositories.from(entityCollection)
+                    .find(specification).map(Entity::getX).collect(Collectors.toSet()));
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(2, 4)), entityCollection.stream()
+                .filter(specs.eq("s", "a").not().toPredicate()).map(Entity::getX).collect(Collectors.toSet()));
+        assertEquals(Collections.singleton(3), entityCollection.stream()
+                .filter(specs.eq("s", null).toPredicate()).map(Entity::getX).collect(Collectors.toSet()));
+    }
+
+    public interface XView {
+        int getX();
+
+        String getS();
+    }
+
+    public static class XDto {
+        private final int x;
+        private final String s;
+
+        public XDto(int x, String s) {
+            this.x = x;
+            this.s = s;
+        }
+    }
+
+    @Test
+    public void jpaSRepositoryProjectionTest() {
+        repository.addAll(Arrays.asList(new Entity(1, "one"), new Entity(2, "two"), new Entity(3)));
+        JpaSpecification<Entity> le2 = JpaSpecifications.of(Entity.class).le("x", 2);
+
+        List<Tuple> tuples;
+        try (Stream<Tuple> found = repository.getTuples(le2, "x", "s")) {
+            tuples = found.collect(Collectors.toList());
+        }
+        assertEquals(2, tuples.size());
+        assertEquals("one", tuples.get(0).get("s", String.class));
+        assertEquals(Integer.valueOf(2), tuples.get(1).get(0, Integer.class));
+        assertEquals("x", tuples.get(0).getElements().get(0).getAlias());
+
+        try (Stream<XView> views = repository.get(le2, XView.class)) {
+            assertEquals(Arrays.asList("one", "two"), views.map(XView::getS).collect(Collectors.toList()));
+        }
+        try (Stream<XDto> dtos = repository.get(null, XDto.class, "x", "s")) {
+            assertEquals(6, dtos.mapToInt(dto -> dto.x).sum());
+        }
+        try (Stream<String> names = repository.getTuples(null, "s").map(tuple -> tuple.get(0, String.class))) {
+            assertEquals(Arrays.asList("one", "two", null), names.collect(Collectors.toList()));
+        }
+        assertFalse(repository.getEntityManager().contains(new Entity(1, "one")));
+    }
+
+    @Test
+    public void jpaSRepositoryPagingTest() {
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 1; i <= 25; i++)
+            entities.add(new Entity(i, i % 2 == 0 ? "even" : "odd"));
+        repository.addAll(entities);
+
+        JpaSort sort = JpaSort.desc("s").thenDesc("x");
+        List<Integer> expected = entities.stream()
+                .sorted(Comparator.comparing(Entity::getS).thenComparing(Entity::getX).reversed())
+                .map(Entity::getX).collect(Collectors.toList());
+
+        JpaPage<Entity> page = repository.getPage(null, JpaPageRequest.of(1, 10, sort));
+        assertEquals(25, page.getTotalElements());
+        assertEquals(3, page.getTotalPages());
+        assertTrue(page.hasNext());
+        assertNull(page.getContinuationToken());
+        assertEquals(expected.subList(10, 20), page.getContent().stream().map(Entity::getX).collect(Collectors.toList()));
+        assertFalse(repository.getSlice(null, page.nextPageRequest()).hasNext());
+        assertEquals(expected, repository.getSlice(null, JpaPageRequest.of(0, Integer.MAX_VALUE, sort)).getContent()
+                .stream().map(Entity::getX).collect(Collectors.toList()));
+
+        try {
+            repository.getSlice(null, JpaPageRequest.first(10, sort));
+            fail();
+        } catch (IllegalArgumentException nullable) {
+        }
+        try {
+            JpaPageRequest.of(Integer.MAX_VALUE / 10 + 1, 10, sort);
+            fail();
+        } catch (IllegalArgumentException overflow) {
+        }
+
+        JpaSpecification<Entity> odd = JpaSpecifications.of(Entity.class).eq("s", "odd");
+        JpaSlice<Entity> first = repository.getSlice(odd, JpaPageRequest.first(5, JpaSort.asc("x")));
+        JpaSlice<Entity> second = repository.getSlice(odd, JpaPageRequest.after(first.getContinuationToken(), 5, JpaSort.asc("x")));
+        assertEquals(Arrays.asList(11, 13, 15, 17, 19), second.getContent().stream().map(Entity::getX).collect(Collectors.toList()));
+
+        try {
+            repository.getSlice(odd, JpaPageRequest.after(first.getContinuationToken(), 5, JpaSort.desc("x")));
+            fail();
+        } catch (IllegalArgumentException expectedMismatch) {
+        }
+    }
+
+    @Test
+    public void jpaSRepositoryRemoveAllEvictsManagedTest() {
+        repository.add(new Entity(1, "a"));
+        assertTrue(repository.get(1).isPresent());
+
+        assertEquals(1, repository.removeAll(Stream.of(new Entity(1, "a"))));
+        assertEquals(0, repository.size());
+        assertFalse(repository.get(1).isPresent());
+    }
+
+    @Test
+    public void jpaSRepositoryStreamAccountingTest() {
+        JpaStatementAccounting accounting = new JpaStatementAccounting();
+        repository.addAll(Arrays.asList(new Entity(1), new Entity(2), new Entity(3)));
+        repository.setStatementAccounting(accounting);
+
+        try (Stream<Entity> stream = repository.getAll()) {
+            Iterator<Entity> iterator = stream.iterator();
+            iterator.next();
+            assertEquals(0, accounting.getCalls(Operation.GET_ALL));
+
+            repository.contains(new Entity(1));
+            iterator.next();
+        }
+        assertEquals(1, accounting.getCalls(Operation.GET_ALL));
+        assertEquals(1, accounting.getStatements(Operation.GET_ALL));
+        assertEquals(2, accounting.getRows(Operation.GET_ALL));
+
+        repository.addAll(Stream.of(new Entity(4), new Entity(5)).peek(e -> repository.setStatementAccounting(null)));
+        assertEquals(1, accounting.getCalls(Operation.ADD_ALL));
+        long statements = accounting.getStatements(Operation.ADD_ALL);
+        repository.size();
+        repository.setStatementAccounting(accounting);
+        repository.size();
+        assertEquals(statements, accounting.getStatements(Operation.ADD_ALL));
+        assertEquals(1, accounting.getCalls(Operation.SIZE));
+    }
+
+    @javax.persistence.Entity
+    public static class Ranked {
+        @Id
+        private Integer x;
+        @Column(nullable = false)
+        private String s;
+
+        public Ranked() {}
+
+        Ranked(int x, String s) {this.x = x;this.s = s;}
+        public Integer getX() {return x;}
+        public String getS() {return s;}
+    }
+
+    @Test
+    public void jpaSRepositoryKeysetPagingTest() {
+        EntityManagerFactory rankedFactory = buildEntityManagerFactory(configuration ->
+                configuration.addAnnotatedClass(Ranked.class));
+        try {
+            JpaSequenceRepository<Ranked, Integer> ranked = new JpaSequenceRepository<>(rankedFactory, Ranked.class);
+            String[] ranks = {"a\u001fb", "a", "1:a", "a\u001f"};
+            List<Ranked> entities = new ArrayList<>();
+            for (int i = 1; i <= 25; i++)
+                entities.add(new Ranked(i, ranks[i % ranks.length]));
+            ranked.addAll(entities);
+
+            JpaSort sort = JpaSort.desc("s").thenDesc("x");
+            List<Integer> expected = entities.stream()
+                    .sorted(Comparator.comparing(Ranked::getS).thenComparing(Ranked::getX).reversed())
+                    .map(Ranked::getX).collect(Collectors.toList());
+
+            List<Integer> keyset = new ArrayList<>();
+            JpaPageRequest request = JpaPageRequest.first(4, sort);
+            while (request != null) {
+                JpaSlice<Ranked> slice = ranked.getSlice(null, request);
+                slice.getContent().forEach(entity -> keyset.add(entity.getX()));
+                request = slice.nextPageRequest();
+            }
+            assertEquals(expected, keyset);
+            ranked.clear();
+        } finally {
+            rankedFactory.close();
+        }
+    }
+
+    @javax.persistence.Entity
+    public static class Stamped {
+        @Id
+        private Integer x;
+        @Temporal(TemporalType.TIMESTAMP)
+        @Column(nullable = false)
+        private Date at;
+
+        public Stamped() {}
+
+        Stamped(int x, Date at) {this.x = x;this.at = at;}
+        public Integer getX() {return x;}
+    }
+
+    @Test
+    public void jpaSRepositoryKeysetPagingByTimestampTest() {
+        EntityManagerFactory stampedFactory = buildEntityManagerFactory(configuration ->
+                configuration.addAnnotatedClass(Stamped.class));
+        try {
+            JpaSequenceRepository<Stamped, Integer> stamped = new JpaSequenceRepository<>(stampedFactory, Stamped.class);
+            long millis = System.currentTimeMillis() / 1000 * 1000;
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 1; i <= 10; i++) {
+                Timestamp at = new Timestamp(millis);
+                at.setNanos(i * 1000);
+                stamped.add(new Stamped(100 - i, at));
+                expected.add(100 - i);
+            }
+
+            List<Integer> keyset = new ArrayList<>();
+            JpaPageRequest request = JpaPageRequest.first(3, JpaSort.asc("at").thenAsc("x"));
+            while (request != null && keyset.size() <= expected.size()) {
+                JpaSlice<Stamped> slice = stamped.getSlice(null, request);
+                slice.getContent().forEach(entity -> keyset.add(entity.getX()));
+                request = slice.nextPageRequest();
+            }
+            assertEquals(expected, keyset);
+            stamped.clear();
+        } finally {
+            stampedFactory.close();
+        }
+    }
 }
@@ -16,6 +16,8 @@
 
 package com.github.wingsofovnia.reppy;
 
+import com.github.wingsofovnia.reppy.jpa.JpaRepository;
+import com.github.wingsofovnia.reppy.jpa.JpaStatementInterceptor;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.jpa.internal.EntityManagerFactoryImpl;
@@ -24,6 +26,7 @@ import org.hibernate.service.ServiceRegistry;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Id;
 import javax.persistence.spi.PersistenceUnitTransactionType;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 /**
@@ -55,6 +58,10 @@ public abstract class JpaTest {
     }
 
     public static EntityManagerFactory buildEntityManagerFactory() {
+        return buildEntityManagerFactory(configuration -> configuration.addAnnotatedClass(Entity.class));
+    }
+
+    public static EntityManagerFactory buildEntityManagerFactory(Consumer<Configuration> mapping) {
         Configuration configuration = new Configuration();
         configuration.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
         configuration.setProperty("hibernate.connection.url", "jdbc:h2:~/test");
@@ -63,7 +70,9 @@ public abstract class JpaTest {
         configuration.setProperty("hibernate.cache.provider_class", "org.hibernate.cache.internal.NoCachingRegionFactory");
         configuration.setProperty("hibernate.hbm2ddl.auto", "create");
         configuration.setProperty("hibernate.connection.autocommit", "false");
-        configuration.addAnnotatedClass(Entity.class);
+        JpaRepository.jdbcBatchingProperties(50).forEach(configuration::setProperty);
+        mapping.accept(configuration);
+        configuration.setInterceptor(new JpaStatementInterceptor());
 
         java.util.logging.Logger.getLogger("org.hibernate").setLevel(Level.OFF);
 
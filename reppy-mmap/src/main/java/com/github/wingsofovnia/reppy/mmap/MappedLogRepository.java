@@ -0,0 +1,612 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.mmap;
+
+import com.github.wingsofovnia.reppy.api.LongSequenceRepository;
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.codec.Codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Durable {@link LongSequenceRepository} on an append-only log of memory-mapped {@link Segment}s.
+ * <p>
+ * Subjects are encoded with a {@link Codec} and appended under increasing ids, {@code remove} appends a
+ * tombstone. An in-memory {@link OffsetIndex} of id to record location is rebuilt by scanning the log on
+ * startup, so lookups by id cost one hash probe and a decode straight from the mapped file. Iteration walks
+ * the segments in order and decodes live records in place. Sealed segments with at least
+ * {@link #getCompactionThreshold()} of dead bytes are rewritten by {@link #compact()}, which can also run in
+ * background, see {@link #setCompactionInterval(long, TimeUnit)}.
+ * <p>
+ * Appends reach the page cache immediately, {@link #flush()} forces them to the storage device; a segment is
+ * also forced once it fills up and the log rolls over to the next one, so only the last segment may end with
+ * a torn record after a crash. Lookups and removals by subject equality scan the whole log.
+ * <p>
+ * Segments replaced by compaction or {@link #clear()}, and all segments on {@link #close()}, are unmapped
+ * at once, so the {@link Codec} must not retain the buffer it decodes from.
+ */
+public class MappedLogRepository<T> implements LongSequenceRepository<T>, AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final AtomicInteger COMPACTOR_COUNT = new AtomicInteger();
+
+    private final Path directory;
+    private final Codec<T> codec;
+    private final int segmentSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<Integer, Segment> segments = new TreeMap<>();
+    private final OffsetIndex index = new OffsetIndex();
+    private Segment active;
+    private long nextId;
+    private boolean closed;
+
+    private volatile double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    private ScheduledExecutorService compactor;
+    private ScheduledFuture<?> compaction;
+
+    public MappedLogRepository(Path directory, Codec<T> codec) {
+        this(directory, codec, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedLogRepository(Path directory, Codec<T> codec, int segmentSize) {
+        if (segmentSize <= Segment.HEADER_SIZE + Segment.RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("Segment size is too small");
+
+        this.directory = Objects.requireNonNull(directory);
+        this.codec = Objects.requireNonNull(codec);
+        this.segmentSize = segmentSize;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to create log directory " + directory, e);
+        }
+        recover();
+    }
+
+    @Override
+    public long insert(T subject) {
+        final byte[] payload = codec.encode(Objects.requireNonNull(subject));
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            final long id = nextId++;
+            index.put(id, append(id, Segment.PUT, payload));
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addAll(Stream<T> subjects) {
+        subjects.forEachOrdered(this::insert);
+    }
+
+    @Override
+    public T getOrNull(long index) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            final long location = this.index.get(index);
+            return location == OffsetIndex.ABSENT ? null : decode(location);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsIndex(long index) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return this.index.containsKey(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(long index) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            final long location = this.index.remove(index);
+            if (location == OffsetIndex.ABSENT)
+                return false;
+
+            final Segment segment = segments.get(segment(location));
+            segment.dead += segment.size(offset(location));
+
+            append(index, Segment.TOMBSTONE, EMPTY);
+            active.dead += Segment.RECORD_HEADER_SIZE;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(T subject) {
+        final LogIterator iterator = new LogIterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().equals(subject)) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int removeAll(Stream<T> subjects) {
+        final Set<T> removable = subjects.collect(Collectors.toSet());
+        if (removable.isEmpty())
+            return 0;
+
+        int removed = 0;
+        final LogIterator iterator = new LogIterator();
+        while (iterator.hasNext()) {
+            if (removable.contains(iterator.next())) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean contains(T subject) {
+        return stream().anyMatch(subject::equals);
+    }
+
+    @Override
+    public boolean containsAll(Stream<T> subjects) {
+        final Set<T> missing = subjects.collect(Collectors.toSet());
+        final Iterator<T> iterator = iterator();
+        while (!missing.isEmpty() && iterator.hasNext())
+            missing.remove(iterator.next());
+        return missing.isEmpty();
+    }
+
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Replaces the log with an empty segment, which carries on ids of the cleared log, so they are not reused.
+     */
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            final int number = segments.lastKey() + 1;
+            final Segment cleared = Segment.create(directory, number, 0, segmentSize, nextId);
+            cleared.force();
+            for (Segment segment : segments.values()) {
+                segment.unmap();
+                segment.delete();
+            }
+            segments.clear();
+            index.clear();
+
+            active = cleared;
+            segments.put(number, active);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Stream<T> getAll() {
+        return stream();
+    }
+
+    /**
+     * Iterates over live subjects in log order, decoding them straight from the mapped segments. The iterator
+     * is weakly consistent: it never throws {@link ConcurrentModificationException} and may or may not
+     * reflect modifications made after its creation.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new LogIterator();
+    }
+
+    /**
+     * Rewrites sealed segments whose dead bytes reach {@link #getCompactionThreshold()} of their size, keeping
+     * only live records and tombstones that still shadow records in older segments. A rewritten segment keeps
+     * its place in the log, so log order is preserved.
+     *
+     * @return number of compacted segments
+     */
+    public int compact() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int compacted = 0;
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment != active && segment.written > 0 && segment.dead >= segment.written * compactionThreshold
+                        && rewrite(segment))
+                    compacted++;
+            }
+            return compacted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces appended records to the storage device.
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (Segment segment : segments.values())
+                segment.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops background compaction, forces the log to the storage device and unmaps it.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (compactor != null)
+                compactor.shutdownNow();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            for (Segment segment : segments.values())
+                segment.force();
+            closed = true;
+            for (Segment segment : segments.values())
+                segment.unmap();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Codec<T> getCodec() {
+        return codec;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public void setCompactionThreshold(double compactionThreshold) {
+        if (compactionThreshold <= 0 || compactionThreshold > 1)
+            throw new IllegalArgumentException("Compaction threshold must be in (0, 1]");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Schedules {@link #compact()} on a background daemon thread, zero interval disables it.
+     */
+    public synchronized void setCompactionInterval(long interval, TimeUnit unit) {
+        if (interval < 0)
+            throw new IllegalArgumentException("Compaction interval must not be negative");
+
+        if (compaction != null)
+            compaction.cancel(false);
+        compaction = null;
+        if (interval == 0)
+            return;
+
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "reppy-mmap-compactor-" + COMPACTOR_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compaction = compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (RepositoryException ignored) {
+                // retried on the next run
+            }
+        }, interval, interval, unit);
+    }
+
+    private void recover() {
+        final Map<Integer, Path> files = new TreeMap<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            for (Path path : listing.filter(Segment::isSegment).sorted().collect(Collectors.toList())) {
+                // interrupted compaction leaves a newer generation next to the complete older one
+                if (files.putIfAbsent(Segment.number(path), path) != null)
+                    Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to list log directory " + directory, e);
+        }
+
+        long maxId = -1;
+        for (Iterator<Path> paths = files.values().iterator(); paths.hasNext(); ) {
+            final Segment segment = Segment.open(paths.next());
+            final boolean last = !paths.hasNext();
+
+            int offset = Segment.HEADER_SIZE;
+            while (offset + Segment.RECORD_HEADER_SIZE <= segment.capacity() && segment.type(offset) != 0) {
+                if (!segment.isValid(offset)) {
+                    if (!last)
+                        throw new RepositoryException("Corrupted record at " + offset + " in " + segment.path);
+                    truncate(segment, offset);
+                    break;
+                }
+
+                final long id = segment.id(offset);
+                if (segment.type(offset) == Segment.PUT)
+                    index.put(id, location(segment.number, offset));
+                else
+                    index.remove(id);
+
+                maxId = Math.max(maxId, id);
+                offset += segment.size(offset);
+            }
+
+            maxId = Math.max(maxId, segment.nextId() - 1);
+            segment.position = offset;
+            segment.written = offset - Segment.HEADER_SIZE;
+            segment.dead = segment.written;
+            segments.put(segment.number, segment);
+        }
+
+        index.forEach((id, location) -> {
+            final Segment segment = segments.get(segment(location));
+            segment.dead -= segment.size(offset(location));
+        });
+
+        if (segments.isEmpty()) {
+            active = Segment.create(directory, 0, 0, segmentSize, 0);
+            segments.put(0, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        nextId = maxId + 1;
+    }
+
+    private static void truncate(Segment segment, int offset) {
+        final ByteBuffer view = ((ByteBuffer) segment.buffer).duplicate();
+        view.position(offset);
+        while (view.hasRemaining())
+            view.put((byte) 0);
+    }
+
+    private long append(long id, byte type, byte[] payload) {
+        final int size = Segment.RECORD_HEADER_SIZE + payload.length;
+        if (size > segmentSize - Segment.HEADER_SIZE)
+            throw new RepositoryException("Record of " + size + " bytes does not fit into a segment of " + segmentSize);
+
+        if (active.remaining() < size) {
+            active.force();
+            final int number = active.number + 1;
+            active = Segment.create(directory, number, 0, segmentSize, nextId);
+            segments.put(number, active);
+        }
+        return location(active.number, active.append(id, type, payload));
+    }
+
+    private boolean rewrite(Segment segment) {
+        final boolean shadowing = segments.firstKey() < segment.number;
+
+        int size = Segment.HEADER_SIZE;
+        for (int offset = Segment.HEADER_SIZE; offset < segment.position; offset += segment.size(offset))
+            if (isRetained(segment, offset, shadowing))
+                size += segment.size(offset);
+
+        if (size - Segment.HEADER_SIZE >= segment.written)
+            return false;
+
+        if (size == Segment.HEADER_SIZE) {
+            segments.remove(segment.number);
+            segment.unmap();
+            segment.delete();
+            return true;
+        }
+
+        final Segment target = Segment.create(directory, segment.number, segment.generation + 1, size,
+                segment.nextId());
+        for (int offset = Segment.HEADER_SIZE; offset < segment.position; offset += segment.size(offset)) {
+            if (!isRetained(segment, offset, shadowing))
+                continue;
+
+            final byte[] payload = new byte[segment.length(offset)];
+            segment.payload(offset).get(payload);
+
+            final long id = segment.id(offset);
+            final byte type = segment.type(offset);
+            final int copied = target.append(id, type, payload);
+            if (type == Segment.PUT)
+                index.put(id, location(target.number, copied));
+            else
+                target.dead += Segment.RECORD_HEADER_SIZE;
+        }
+
+        target.force();
+        segments.put(target.number, target);
+        segment.unmap();
+        segment.delete();
+        return true;
+    }
+
+    private boolean isRetained(Segment segment, int offset, boolean shadowing) {
+        if (segment.type(offset) == Segment.TOMBSTONE)
+            return shadowing;
+        return index.get(segment.id(offset)) == location(segment.number, offset);
+    }
+
+    private T decode(long location) {
+        return codec.decode(segments.get(segment(location)).payload(offset(location)));
+    }
+
+    private void ensureOpen() {
+        if (closed)
+            throw new RepositoryException("Repository is closed");
+    }
+
+    private static long location(int segment, int offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    private static int segment(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private class LogIterator implements Iterator<T> {
+        private Segment segment;
+        private int offset = Segment.HEADER_SIZE;
+        private T next;
+        private long nextId = -1;
+        private long lastId = -1;
+        private long passedId = -1;
+
+        LogIterator() {
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                segment = segments.firstEntry().getValue();
+            } finally {
+                lock.readLock().unlock();
+            }
+            advance();
+        }
+
+        /**
+         * A record is live while its id is indexed. Ids of records increase in log order and are never reused,
+         * so once the segment being read has been unmapped, reading resumes from the start of whatever took
+         * its place, skipping ids already passed, and never sees the same id twice.
+         */
+        private void advance() {
+            next = null;
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                while (segment != null) {
+                    if (segment.unmapped) {
+                        final Map.Entry<Integer, Segment> replacement = segments.ceilingEntry(segment.number);
+                        segment = replacement == null ? null : replacement.getValue();
+                        offset = Segment.HEADER_SIZE;
+                        continue;
+                    }
+
+                    while (offset < segment.position) {
+                        final int record = offset;
+                        offset += segment.size(record);
+
+                        final long id = segment.id(record);
+                        if (segment.type(record) != Segment.PUT || id <= passedId)
+                            continue;
+
+                        passedId = id;
+                        if (index.containsKey(id)) {
+                            next = codec.decode(segment.payload(record));
+                            nextId = id;
+                            return;
+                        }
+                    }
+
+                    final Map.Entry<Integer, Segment> following = segments.higherEntry(segment.number);
+                    segment = following == null ? null : following.getValue();
+                    offset = Segment.HEADER_SIZE;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (next == null)
+                throw new NoSuchElementException();
+
+            final T current = next;
+            lastId = nextId;
+            advance();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (lastId < 0)
+                throw new IllegalStateException();
+            MappedLogRepository.this.remove(lastId);
+            lastId = -1;
+        }
+    }
+}
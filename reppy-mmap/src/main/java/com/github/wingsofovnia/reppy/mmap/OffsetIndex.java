@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.mmap;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map of non-negative {@code long} ids to packed record locations. Uses linear probing
+ * with backward shift deletion, so lookups and removals allocate nothing.
+ */
+final class OffsetIndex {
+    static final long ABSENT = -1;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    OffsetIndex() {
+        allocate(64);
+    }
+
+    long get(long key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            final long k = keys[i];
+            if (k == key)
+                return values[i];
+            if (k == ABSENT)
+                return ABSENT;
+        }
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != ABSENT;
+    }
+
+    void put(long key, long value) {
+        if (key < 0)
+            throw new IllegalArgumentException("Key must not be negative");
+
+        int i = slot(key);
+        for (; keys[i] != ABSENT; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length * 3 / 4)
+            resize(keys.length * 2);
+    }
+
+    long remove(long key) {
+        int i = slot(key);
+        for (; keys[i] != key; i = (i + 1) & mask)
+            if (keys[i] == ABSENT)
+                return ABSENT;
+
+        final long removed = values[i];
+        keys[i] = ABSENT;
+        size--;
+
+        for (int j = (i + 1) & mask; keys[j] != ABSENT; j = (j + 1) & mask) {
+            final int home = slot(keys[j]);
+            final boolean stays = i <= j ? i < home && home <= j : i < home || home <= j;
+            if (!stays) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                keys[j] = ABSENT;
+                i = j;
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, ABSENT);
+        size = 0;
+    }
+
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++)
+            if (keys[i] != ABSENT)
+                visitor.visit(keys[i], values[i]);
+    }
+
+    interface Visitor {
+        void visit(long key, long value);
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, ABSENT);
+        mask = capacity - 1;
+    }
+
+    private void resize(int capacity) {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != ABSENT)
+                put(oldKeys[i], oldValues[i]);
+    }
+}
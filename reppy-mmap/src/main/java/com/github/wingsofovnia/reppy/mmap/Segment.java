@@ -0,0 +1,266 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy.mmap;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped log segment file. A segment starts with a header of magic, format version and the next id
+ * the log was to assign when the segment was created, which keeps ids from being reused once records holding
+ * the highest ones are cleared or compacted away. The header is followed by records of
+ * <pre>
+ *     int length | int crc32 | long id | byte type | byte[length] payload
+ * </pre>
+ * Zero-filled space after the last record reads as type {@code 0} and marks the end of the log. The type is
+ * written last, so a torn append is never mistaken for a record.
+ * <p>
+ * A segment no longer in use is {@link #unmap() unmapped} right away instead of waiting for the garbage
+ * collector, so the address space and file handle of a deleted segment are released immediately. Its buffer
+ * must not be touched afterwards.
+ */
+final class Segment {
+    static final int MAGIC = 0x52505059;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 17;
+
+    static final byte PUT = 1;
+    static final byte TOMBSTONE = 2;
+
+    private static final Pattern FILE_NAME = Pattern.compile("segment-(\\d{10})-(\\d{5})\\.log");
+    private static final MethodHandle UNMAPPER = unmapper();
+
+    final int number;
+    final int generation;
+    final Path path;
+    final MappedByteBuffer buffer;
+
+    int position = HEADER_SIZE;
+    long written;
+    long dead;
+    boolean unmapped;
+
+    private Segment(int number, int generation, Path path, MappedByteBuffer buffer) {
+        this.number = number;
+        this.generation = generation;
+        this.path = path;
+        this.buffer = buffer;
+    }
+
+    static Segment create(Path directory, int number, int generation, int capacity, long nextId) {
+        final Path path = directory.resolve(String.format("segment-%010d-%05d.log", number, generation));
+        final Segment segment = new Segment(number, generation, path, map(path, capacity, true));
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.buffer.putLong(8, nextId);
+        return segment;
+    }
+
+    static Segment open(Path path) {
+        final Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+        if (!matcher.matches())
+            throw new RepositoryException("Not a segment file: " + path);
+
+        final Segment segment;
+        try {
+            segment = new Segment(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), path,
+                    map(path, (int) Files.size(path), false));
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to open segment " + path, e);
+        }
+
+        if (segment.capacity() < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC)
+            throw new RepositoryException("Corrupted segment header in " + path);
+        if (segment.buffer.getInt(4) != VERSION)
+            throw new RepositoryException("Unsupported segment version " + segment.buffer.getInt(4) + " in " + path);
+        return segment;
+    }
+
+    static boolean isSegment(Path path) {
+        return FILE_NAME.matcher(path.getFileName().toString()).matches();
+    }
+
+    static int number(Path path) {
+        final Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return next id the log was to assign when the segment was created
+     */
+    long nextId() {
+        return buffer.getLong(8);
+    }
+
+    int remaining() {
+        return capacity() - position;
+    }
+
+    /**
+     * @return offset of the appended record
+     */
+    int append(long id, byte type, byte[] payload) {
+        final int offset = position;
+        final ByteBuffer view = ((ByteBuffer) buffer).duplicate();
+        view.position(offset);
+        view.putInt(payload.length).putInt(crc(id, type, payload)).putLong(id);
+        view.position(offset + RECORD_HEADER_SIZE);
+        view.put(payload);
+        buffer.put(offset + 16, type);
+
+        final int size = RECORD_HEADER_SIZE + payload.length;
+        position += size;
+        written += size;
+        return offset;
+    }
+
+    int length(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    long id(int offset) {
+        return buffer.getLong(offset + 8);
+    }
+
+    byte type(int offset) {
+        return buffer.get(offset + 16);
+    }
+
+    int size(int offset) {
+        return RECORD_HEADER_SIZE + length(offset);
+    }
+
+    /**
+     * @return view of the record payload, sharing content with the mapped file
+     */
+    ByteBuffer payload(int offset) {
+        final ByteBuffer view = ((ByteBuffer) buffer).duplicate();
+        view.position(offset + RECORD_HEADER_SIZE);
+        view.limit(offset + RECORD_HEADER_SIZE + length(offset));
+        return view.slice();
+    }
+
+    /**
+     * @return whether a complete, intact record starts at the offset
+     */
+    boolean isValid(int offset) {
+        if (offset + RECORD_HEADER_SIZE > capacity())
+            return false;
+
+        final byte type = type(offset);
+        final int length = length(offset);
+        if (type != PUT && type != TOMBSTONE || length < 0 || offset + RECORD_HEADER_SIZE + length > capacity())
+            return false;
+
+        final byte[] payload = new byte[length];
+        payload(offset).get(payload);
+        return buffer.getInt(offset + 4) == crc(id(offset), type, payload);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Releases the mapping, if the running JDK allows it, otherwise leaves it to the garbage collector.
+     */
+    void unmap() {
+        if (unmapped)
+            return;
+
+        unmapped = true;
+        if (UNMAPPER == null)
+            return;
+        try {
+            UNMAPPER.invokeExact((ByteBuffer) buffer);
+        } catch (Throwable e) {
+            throw new RepositoryException("Failed to unmap segment " + path, e);
+        }
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to delete segment " + path, e);
+        }
+    }
+
+    private static int crc(long id, byte type, byte[] payload) {
+        final CRC32 crc = new CRC32();
+        for (int i = 0; i < Long.BYTES; i++)
+            crc.update((int) (id >>> (i * 8)));
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return handle of {@code Unsafe.invokeCleaner(ByteBuffer)} on JDK 9+, of
+     * {@code ((DirectBuffer) buffer).cleaner().clean()} on JDK 8, or null if neither is accessible
+     */
+    private static MethodHandle unmapper() {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return lookup.unreflect(invokeCleaner).bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // not JDK 9+
+        }
+        try {
+            final MethodHandle cleaner = lookup.unreflect(Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner"));
+            final MethodHandle clean = lookup.unreflect(Class.forName("sun.misc.Cleaner").getMethod("clean"));
+            return MethodHandles.filterReturnValue(cleaner, clean)
+                    .asType(MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int capacity, boolean create) {
+        try (FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to map segment " + path, e);
+        }
+    }
+}
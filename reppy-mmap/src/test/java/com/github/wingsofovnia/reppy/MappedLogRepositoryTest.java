@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2016 Reppy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.wingsofovnia.reppy;
+
+import com.github.wingsofovnia.reppy.api.RepositoryException;
+import com.github.wingsofovnia.reppy.codec.Codecs;
+import com.github.wingsofovnia.reppy.mmap.MappedLogRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class MappedLogRepositoryTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mappedLogRepositoryTest() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (MappedLogRepository<String> repository = new MappedLogRepository<>(directory, Codecs.utf8(), SEGMENT_SIZE)) {
+            long a = repository.insert("a");
+            long b = repository.insert("b");
+            repository.add("c");
+
+            assertEquals("a", repository.getOrNull(a));
+            assertEquals("b", repository.get(b).get());
+            assertNull(repository.getOrNull(42));
+            assertEquals(3, repository.size());
+            assertTrue(repository.containsAll(Arrays.asList("a", "c")));
+
+            assertTrue(repository.remove(a));
+            assertFalse(repository.remove(a));
+            repository.remove("c");
+            assertFalse(repository.contains("c"));
+            assertEquals(Arrays.asList("b"), repository.getAll().collect(Collectors.toList()));
+        }
+
+        try (MappedLogRepository<String> reopened = new MappedLogRepository<>(directory, Codecs.utf8(), SEGMENT_SIZE)) {
+            assertEquals(Arrays.asList("b"), reopened.getAll().collect(Collectors.toList()));
+            assertEquals(3, reopened.insert("d"));
+        }
+    }
+
+    @Test
+    public void mappedLogRepositoryCompactionTest() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        List<String> values = IntStream.range(0, 1000).mapToObj(i -> "value-" + i).collect(Collectors.toList());
+
+        try (MappedLogRepository<String> repository = new MappedLogRepository<>(directory, Codecs.utf8(), SEGMENT_SIZE)) {
+            repository.addAll(values);
+            assertTrue(repository.getSegmentCount() > 1);
+
+            for (long id = 0; id < values.size(); id++)
+                if (id % 4 != 0)
+                    repository.remove(id);
+
+            assertTrue(repository.compact() > 0);
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(repository.getSegmentCount(), files.count());
+            }
+            assertEquals(values.size() / 4, repository.size());
+            assertEquals("value-400", repository.getOrNull(400));
+            assertNull(repository.getOrNull(401));
+        }
+
+        try (MappedLogRepository<String> reopened = new MappedLogRepository<>(directory, Codecs.utf8(), SEGMENT_SIZE)) {
+            List<String> expected = IntStream.range(0, values.size()).filter(i -> i % 4 == 0)
+                    .mapToObj(values::get).collect(Collectors.toList());
+            assertEquals(expected, reopened.getAll().collect(Collectors.toList()));
+            assertEquals("value-996", reopened.getOrNull(996));
+        }
+    }
+
+    @Test
+    public void mappedLogRepositoryIterationAcrossCompactionTest() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        List<String> values = IntStream.range(0, 1000).mapToObj(i -> "value-" + i).collect(Collectors.toList());
+
+        MappedLogRepository<String> repository = new MappedLogRepository<>(directory, Codecs.utf8(), SEGMENT_SIZE);
+        repository.addAll(values);
+
+        Iterator<String> iterator = repository.iterator();
+        List<String> seen = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            seen.add(iterator.next());
+
+        for (long id = 0; id < values.size(); id++)
+            if (id % 4 != 0)
+                repository.remove(id);
+        assertTrue(repository.compact() > 0);
+
+        iterator.forEachRemaining(seen::add);
+        // the iterator has already read one value ahead of those returned
+        List<String> expected = new ArrayList<>(values.subList(0, 11));
+        IntStream.range(11, values.size()).filter(i -> i % 4 == 0).mapToObj(values::get).forEach(expected::add);
+        assertEquals(expected, seen);
+
+        Iterator<String> cleared = repository.iterator();
+        cleared.next();
+        repository.clear();
+        cleared.next();
+        assertFalse(cleared.hasNext());
+
+        repository.addAll(values.subList(0, 3));
+        Iterator<String> closed = repository.iterator();
+        repository.close();
+        try {
+            while (closed.hasNext())
+                closed.next();
+            fail();
+        } catch (RepositoryException expectedFailure) {
+        }
+    }
+
+    @Test
+    public void mappedLogRepositoryIdsSurviveClearTest() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (MappedLogRepository<String> repository = new MappedLogRepository<>(directory, Codecs.utf8(), SEGMENT_SIZE)) {
+            repository.addAll(IntStream.range(0, 100).mapToObj(i -> "value-" + i).collect(Collectors.toList()));
+            repository.clear();
+            assertEquals(100, repository.insert("a"));
+            repository.remove(100);
+            repository.clear();
+        }
+
+        try (MappedLogRepository<String> reopened = new MappedLogRepository<>(directory, Codecs.utf8(), SEGMENT_SIZE)) {
+            assertTrue(reopened.isEmpty());
+            assertEquals(101, reopened.insert("b"));
+            reopened.close();
+            try {
+                reopened.containsIndex(101);
+                fail();
+            } catch (RepositoryException expected) {
+            }
+        }
+    }
+}